@@ -0,0 +1,108 @@
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+import benchmark.Workload;
+import com.owlike.genson.Genson;
+
+/**
+ * CredentialsCC operations against an in-memory ledger. Credentials are created by an
+ * administrator and read by a level 2 client. Operations run as separate transactions
+ * and their writes are discarded, so the ledger stays the same for every call.
+ *
+ */
+public final class CredentialWorkload implements Workload {
+
+    private static final int RECORDS_PER_TX = 1000;
+
+    private final InMemoryLedger ledger = new InMemoryLedger();
+    private final CredentialsCC contract = new CredentialsCC();
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final BenchmarkIdentity admin = new BenchmarkIdentity("Org1MSP", "admin", "3");
+    private final BenchmarkIdentity reader = new BenchmarkIdentity("Org1MSP", "reader", "2");
+    private final Genson genson = new Genson();
+    private final Credential sample = record(0);
+    private int records;
+    private long tx;
+
+    @Override
+    public void setUp(final int records) {
+        this.records = records;
+        for (int first = 0; first < records; first += RECORDS_PER_TX) {
+            InMemoryChaincodeStub stub = stub(admin, "createCredential");
+            CredentialContext ctx = (CredentialContext) contract.createContext(stub);
+            for (int i = first; i < Math.min(records, first + RECORDS_PER_TX); i++) {
+                create(ctx, key(i), record(i));
+            }
+            stub.commit();
+        }
+    }
+
+    @Override
+    public Supplier<Object> operation(final String name) {
+        final byte[] json = CredentialCodec.encode(sample, CredentialCodec.JSON);
+        final byte[] binary = CredentialCodec.encode(sample, CredentialCodec.BINARY);
+        final String text = new String(json, StandardCharsets.UTF_8);
+        switch (name) {
+            case "createCredential":
+                return () -> create(context(admin, name), "new" + tx, sample);
+            case "readCredential":
+                return () -> contract.readCredential(context(reader, name), randomKey());
+            case "updateCredential":
+                return () -> {
+                    Credential cc = record(random.nextInt(records));
+                    return contract.updateCredential(context(admin, name), randomKey(), cc.getProvider(), cc.getBucket(),
+                            cc.getAccess_key(), cc.getSecret_key(), cc.getAccess_level());
+                };
+            case "queryAllCredentials":
+                return () -> contract.queryAllCredentials(context(reader, name));
+            case "readCredentialForBucket":
+                return () -> {
+                    Credential cc = record(random.nextInt(records));
+                    return contract.readCredentialForBucket(context(reader, name), cc.getProvider(), cc.getBucket());
+                };
+            case "queryCredentialsByProvider":
+                return () -> contract.queryCredentialsByProvider(context(reader, name), random.nextBoolean() ? "AWS" : "GCS");
+            case "encodeJson":
+                return () -> CredentialCodec.encode(sample, CredentialCodec.JSON);
+            case "encodeBinary":
+                return () -> CredentialCodec.encode(sample, CredentialCodec.BINARY);
+            case "decodeJson":
+                return () -> CredentialCodec.decode(json);
+            case "decodeBinary":
+                return () -> CredentialCodec.decode(binary);
+            case "gensonSerialize":
+                return () -> genson.serialize(sample);
+            case "gensonDeserialize":
+                return () -> genson.deserialize(text, Credential.class);
+            default:
+                throw new IllegalArgumentException("Unknown operation " + name);
+        }
+    }
+
+    private Credential create(final CredentialContext ctx, final String key, final Credential cc) {
+        return contract.createCredential(ctx, key, cc.getProvider(), cc.getBucket(), cc.getAccess_key(),
+                cc.getSecret_key(), cc.getAccess_level());
+    }
+
+    private CredentialContext context(final BenchmarkIdentity identity, final String function) {
+        return (CredentialContext) contract.createContext(stub(identity, function));
+    }
+
+    private InMemoryChaincodeStub stub(final BenchmarkIdentity identity, final String function) {
+        return new InMemoryChaincodeStub(ledger, identity, "tx" + tx++, function);
+    }
+
+    private String randomKey() {
+        return key(random.nextInt(records));
+    }
+
+    private static String key(final int i) {
+        return "CC" + i;
+    }
+
+    private static Credential record(final int i) {
+        return new Credential(i % 2 == 0 ? "AWS" : "GCS", "bucket-" + i % 100, "access-key-" + i,
+                "secret-key-" + i, String.valueOf(1 + i % 2));
+    }
+}
@@ -0,0 +1,80 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization cost of one stored value: the JSON and binary storage encodings, and
+ * Genson, which the generated JSON codecs replace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"fileWorkload", "CredentialWorkload"})
+    public String workload;
+
+    private Supplier<Object> encodeJson;
+    private Supplier<Object> encodeBinary;
+    private Supplier<Object> decodeJson;
+    private Supplier<Object> decodeBinary;
+    private Supplier<Object> gensonSerialize;
+    private Supplier<Object> gensonDeserialize;
+
+    @Setup
+    public void setUp() {
+        Workload codecs = Workload.load(workload, 0);
+        encodeJson = codecs.operation("encodeJson");
+        encodeBinary = codecs.operation("encodeBinary");
+        decodeJson = codecs.operation("decodeJson");
+        decodeBinary = codecs.operation("decodeBinary");
+        gensonSerialize = codecs.operation("gensonSerialize");
+        gensonDeserialize = codecs.operation("gensonDeserialize");
+    }
+
+    @Benchmark
+    public Object encodeJson() {
+        return encodeJson.get();
+    }
+
+    @Benchmark
+    public Object encodeBinary() {
+        return encodeBinary.get();
+    }
+
+    @Benchmark
+    public Object decodeJson() {
+        return decodeJson.get();
+    }
+
+    @Benchmark
+    public Object decodeBinary() {
+        return decodeBinary.get();
+    }
+
+    @Benchmark
+    public Object gensonSerialize() {
+        return gensonSerialize.get();
+    }
+
+    @Benchmark
+    public Object gensonDeserialize() {
+        return gensonDeserialize.get();
+    }
+}
@@ -0,0 +1,87 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CredentialsCC transactions, including the Context and ClientIdentity set up of every
+ * transaction, against ledgers of 10k to 1M credentials.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class CredentialContractBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int records;
+
+    private Supplier<Object> createCredential;
+    private Supplier<Object> readCredential;
+    private Supplier<Object> updateCredential;
+    private Supplier<Object> queryAllCredentials;
+    private Supplier<Object> readCredentialForBucket;
+    private Supplier<Object> queryCredentialsByProvider;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Workload workload = Workload.load("CredentialWorkload", records);
+        createCredential = workload.operation("createCredential");
+        readCredential = workload.operation("readCredential");
+        updateCredential = workload.operation("updateCredential");
+        queryAllCredentials = workload.operation("queryAllCredentials");
+        readCredentialForBucket = workload.operation("readCredentialForBucket");
+        queryCredentialsByProvider = workload.operation("queryCredentialsByProvider");
+    }
+
+    @Benchmark
+    public Object createCredential() {
+        return createCredential.get();
+    }
+
+    @Benchmark
+    public Object readCredential() {
+        return readCredential.get();
+    }
+
+    @Benchmark
+    public Object updateCredential() {
+        return updateCredential.get();
+    }
+
+    /**
+     * Every credential up to the 4 MiB response cap.
+     */
+    @Benchmark
+    public Object queryAllCredentials() {
+        return queryAllCredentials.get();
+    }
+
+    @Benchmark
+    public Object readCredentialForBucket() {
+        return readCredentialForBucket.get();
+    }
+
+    /**
+     * The credentials of one provider up to the 4 MiB response cap.
+     */
+    @Benchmark
+    public Object queryCredentialsByProvider() {
+        return queryCredentialsByProvider.get();
+    }
+}
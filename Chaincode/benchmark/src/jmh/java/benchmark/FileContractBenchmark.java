@@ -0,0 +1,122 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * fileContract transactions, including the Context and ClientIdentity set up of every
+ * transaction, against ledgers of 10k to 1M fileData.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class FileContractBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int records;
+
+    private Supplier<Object> createFileData;
+    private Supplier<Object> readFileData;
+    private Supplier<Object> updateFileData;
+    private Supplier<Object> deleteFileData;
+    private Supplier<Object> readFileDataBatch;
+    private Supplier<Object> planFileAccess;
+    private Supplier<Object> queryByAuthor;
+    private Supplier<Object> queryByAuthorSummaries;
+    private Supplier<Object> queryByAuthorWithPagination;
+    private Supplier<Object> queryAllByAccessLevelWithPagination;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Workload workload = Workload.load("fileWorkload", records);
+        createFileData = workload.operation("createFileData");
+        readFileData = workload.operation("readFileData");
+        updateFileData = workload.operation("updateFileData");
+        deleteFileData = workload.operation("deleteFileData");
+        readFileDataBatch = workload.operation("readFileDataBatch");
+        planFileAccess = workload.operation("planFileAccess");
+        queryByAuthor = workload.operation("queryByAuthor");
+        queryByAuthorSummaries = workload.operation("queryByAuthorSummaries");
+        queryByAuthorWithPagination = workload.operation("queryByAuthorWithPagination");
+        queryAllByAccessLevelWithPagination = workload.operation("queryAllByAccessLevelWithPagination");
+    }
+
+    @Benchmark
+    public Object createFileData() {
+        return createFileData.get();
+    }
+
+    @Benchmark
+    public Object readFileData() {
+        return readFileData.get();
+    }
+
+    @Benchmark
+    public Object updateFileData() {
+        return updateFileData.get();
+    }
+
+    @Benchmark
+    public Object deleteFileData() {
+        return deleteFileData.get();
+    }
+
+    /**
+     * 100 random keys per transaction.
+     */
+    @Benchmark
+    public Object readFileDataBatch() {
+        return readFileDataBatch.get();
+    }
+
+    /**
+     * readFileData and the credentials of its two buckets, through the in-memory
+     * chaincode to chaincode call.
+     */
+    @Benchmark
+    public Object planFileAccess() {
+        return planFileAccess.get();
+    }
+
+    /**
+     * All fileData of one author, records / 100 of them.
+     */
+    @Benchmark
+    public Object queryByAuthor() {
+        return queryByAuthor.get();
+    }
+
+    /**
+     * The same listing as queryByAuthor, read from the index entries alone.
+     */
+    @Benchmark
+    public Object queryByAuthorSummaries() {
+        return queryByAuthorSummaries.get();
+    }
+
+    @Benchmark
+    public Object queryByAuthorWithPagination() {
+        return queryByAuthorWithPagination.get();
+    }
+
+    @Benchmark
+    public Object queryAllByAccessLevelWithPagination() {
+        return queryAllByAccessLevelWithPagination.get();
+    }
+}
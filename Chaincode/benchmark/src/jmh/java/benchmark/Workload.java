@@ -0,0 +1,36 @@
+package benchmark;
+
+import java.util.function.Supplier;
+
+/**
+ * Operations of one chaincode, prepared against an in-memory ledger.
+ *
+ * JMH refuses benchmarks in the default package, and code in a package cannot refer to
+ * the contract classes, which live in the default package. The workloads are therefore
+ * written next to the contracts and loaded here by class name.
+ *
+ */
+public interface Workload {
+
+    /**
+     * Loads the given number of records into the ledger.
+     */
+    void setUp(int records);
+
+    /**
+     * @param name of the operation
+     * @return the operation, each call runs one transaction or codec call and returns its result
+     */
+    Supplier<Object> operation(String name);
+
+    static Workload load(final String className, final int records) {
+        Workload workload;
+        try {
+            workload = (Workload) Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to load workload " + className, e);
+        }
+        workload.setUp(records);
+        return workload;
+    }
+}
@@ -0,0 +1,158 @@
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+import benchmark.Workload;
+import com.owlike.genson.Genson;
+import org.hyperledger.fabric.shim.ResponseUtils;
+
+/**
+ * fileContract operations against an in-memory ledger. The ledger is loaded through the
+ * contract, spread over AUTHORS clients so that queryByAuthor returns records / AUTHORS
+ * fileData. Operations run as separate transactions and their writes are discarded, so
+ * the ledger stays the same for every call. The credential chaincode is installed next to
+ * fileContract with a credential for each bucket of the records, for planFileAccess.
+ *
+ */
+public final class fileWorkload implements Workload {
+
+    private static final int AUTHORS = 100;
+    private static final int RECORDS_PER_TX = 1000;
+    private static final int BATCH_SIZE = 100;
+    private static final int BATCHES = 64;
+    private static final int PAGE_SIZE = 100;
+
+    private final InMemoryLedger ledger = new InMemoryLedger();
+    private final fileContract contract = new fileContract();
+    private final CredentialsCC credentials = new CredentialsCC();
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final BenchmarkIdentity[] authors = new BenchmarkIdentity[AUTHORS];
+    private final String[] authorIds = new String[AUTHORS];
+    private final String[] batches = new String[BATCHES];
+    private final Genson genson = new Genson();
+    private final fileData sample = record(0);
+    private int records;
+    private long tx;
+
+    public fileWorkload() {
+        for (int i = 0; i < AUTHORS; i++) {
+            authors[i] = new BenchmarkIdentity("Org1MSP", "author" + i, "3");
+        }
+    }
+
+    @Override
+    public void setUp(final int records) {
+        this.records = records;
+        ledger.install("cCredential", stub -> ResponseUtils.newSuccessResponse(credentials.readCredentialsForBuckets(
+                (CredentialContext) credentials.createContext(stub), stub.getParameters().get(0))
+                .getBytes(StandardCharsets.UTF_8)));
+        InMemoryChaincodeStub credentialStub = stub(authors[0], "createCredential");
+        CredentialContext credentialCtx = (CredentialContext) credentials.createContext(credentialStub);
+        credentials.createCredential(credentialCtx, "aws", "AWS", "aws-bucket", "access-key", "secret-key", "1");
+        credentials.createCredential(credentialCtx, "gcs", "GCS", "gcs-bucket", "access-key", "secret-key", "2");
+        credentialStub.commit();
+        for (int i = 0; i < AUTHORS; i++) {
+            authorIds[i] = context(authors[i], "setUp").getClientId();
+        }
+        int perTx = Math.max(1, Math.min(RECORDS_PER_TX, records / AUTHORS));
+        for (int first = 0; first < records; first += perTx) {
+            BenchmarkIdentity author = authors[(first / perTx) % AUTHORS];
+            InMemoryChaincodeStub stub = stub(author, "createFileData");
+            fileContext ctx = (fileContext) contract.createContext(stub);
+            for (int i = first; i < Math.min(records, first + perTx); i++) {
+                create(ctx, key(i), record(i));
+            }
+            stub.commit();
+        }
+        for (int b = 0; b < BATCHES && records > 0; b++) {
+            StringBuilder keys = new StringBuilder("[");
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                keys.append(i == 0 ? "\"" : ",\"").append(randomKey()).append('"');
+            }
+            batches[b] = keys.append(']').toString();
+        }
+    }
+
+    @Override
+    public Supplier<Object> operation(final String name) {
+        final byte[] json = fileDataCodec.encode(sample, fileDataCodec.JSON);
+        final byte[] binary = fileDataCodec.encode(sample, fileDataCodec.BINARY);
+        final String text = new String(json, StandardCharsets.UTF_8);
+        switch (name) {
+            case "createFileData":
+                return () -> create(context(randomAuthor(), name), "new" + tx, sample);
+            case "readFileData":
+                return () -> contract.readFileData(context(authors[0], name), randomKey());
+            case "updateFileData":
+                return () -> {
+                    fileData fd = record(random.nextInt(records));
+                    return contract.updateFileData(context(authors[0], name), randomKey(), fd.getName(), fd.getFormat(),
+                            fd.getSize(), fd.getHash(), fd.getCreation_date(), fd.getEncryption_key(), fd.getBuckets(),
+                            fd.getAccess_level());
+                };
+            case "deleteFileData":
+                return () -> {
+                    contract.deleteFileData(context(authors[0], name), randomKey());
+                    return null;
+                };
+            case "readFileDataBatch":
+                return () -> contract.readFileDataBatch(context(authors[0], name), batches[random.nextInt(BATCHES)]);
+            case "planFileAccess":
+                return () -> contract.planFileAccess(context(authors[0], name), randomKey());
+            case "queryByAuthor":
+                return () -> contract.queryByAuthor(context(authors[0], name), authorIds[random.nextInt(AUTHORS)]);
+            case "queryByAuthorSummaries":
+                return () -> contract.queryByAuthorSummaries(context(authors[0], name), authorIds[random.nextInt(AUTHORS)]);
+            case "queryByAuthorWithPagination":
+                return () -> contract.queryByAuthorWithPagination(context(authors[0], name),
+                        authorIds[random.nextInt(AUTHORS)], PAGE_SIZE, "");
+            case "queryAllByAccessLevelWithPagination":
+                return () -> contract.queryAllByAccessLevelWithPagination(context(authors[0], name), PAGE_SIZE, "");
+            case "encodeJson":
+                return () -> fileDataCodec.encode(sample, fileDataCodec.JSON);
+            case "encodeBinary":
+                return () -> fileDataCodec.encode(sample, fileDataCodec.BINARY);
+            case "decodeJson":
+                return () -> fileDataCodec.decode(json);
+            case "decodeBinary":
+                return () -> fileDataCodec.decode(binary);
+            case "gensonSerialize":
+                return () -> genson.serialize(sample);
+            case "gensonDeserialize":
+                return () -> genson.deserialize(text, fileData.class);
+            default:
+                throw new IllegalArgumentException("Unknown operation " + name);
+        }
+    }
+
+    private fileData create(final fileContext ctx, final String key, final fileData fd) {
+        return contract.createFileData(ctx, key, fd.getName(), fd.getFormat(), fd.getSize(), fd.getHash(),
+                fd.getCreation_date(), fd.getEncryption_key(), fd.getBuckets(), fd.getAccess_level());
+    }
+
+    private fileContext context(final BenchmarkIdentity identity, final String function) {
+        return (fileContext) contract.createContext(stub(identity, function));
+    }
+
+    private InMemoryChaincodeStub stub(final BenchmarkIdentity identity, final String function) {
+        return new InMemoryChaincodeStub(ledger, identity, "tx" + tx++, function);
+    }
+
+    private BenchmarkIdentity randomAuthor() {
+        return authors[random.nextInt(AUTHORS)];
+    }
+
+    private String randomKey() {
+        return key(random.nextInt(records));
+    }
+
+    private static String key(final int i) {
+        return String.format("file%07d", i);
+    }
+
+    private static fileData record(final int i) {
+        return new fileData("report-" + i + ".pdf", "pdf", String.valueOf(1024 + i % 1048576),
+                String.format("%064x", i), null, "2021-05-" + (10 + i % 20), "key-" + i,
+                "[\"aws-bucket\",\"gcs-bucket\"]", String.valueOf(1 + i % 3));
+    }
+}
@@ -0,0 +1,81 @@
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.protobuf.ByteString;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.hyperledger.fabric.protos.msp.SerializedIdentity;
+
+/**
+ * A client of the network with a self signed certificate carrying Fabric CA attributes,
+ * the way ClientIdentity expects them. Context parses the certificate of every
+ * transaction, so the benchmarks pay the same identity cost as a peer.
+ *
+ */
+public final class BenchmarkIdentity {
+
+    /**
+     * Extension under which Fabric CA stores {"attrs": {...}} in enrollment certificates.
+     */
+    private static final String FABRIC_CERT_ATTR_OID = "1.2.3.4.5.6.7.8.1";
+    private static final long VALIDITY_MILLIS = 365L * 24 * 60 * 60 * 1000;
+    private static final AtomicLong SERIAL = new AtomicLong();
+
+    private final String mspId;
+    private final byte[] creator;
+
+    /**
+     * @param mspId of the organization
+     * @param name common name of the client
+     * @param alevel access level attribute, see fileContract and CredentialsCC
+     */
+    public BenchmarkIdentity(final String mspId, final String name, final String alevel) {
+        this.mspId = mspId;
+        byte[] certificate = certificate(name, "{\"attrs\":{\"alevel\":\"" + alevel + "\"}}");
+        this.creator = SerializedIdentity.newBuilder()
+                .setMspid(mspId)
+                .setIdBytes(ByteString.copyFrom(certificate))
+                .build()
+                .toByteArray();
+    }
+
+    public String getMspId() {
+        return mspId;
+    }
+
+    /**
+     * @return the serialized identity, as returned by ChaincodeStub.getCreator
+     */
+    public byte[] getCreator() {
+        return creator;
+    }
+
+    private static byte[] certificate(final String name, final String attrs) {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(256);
+            KeyPair keys = generator.generateKeyPair();
+            X500Name subject = new X500Name("CN=" + name + ",OU=client,O=benchmark");
+            long now = System.currentTimeMillis();
+            X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(subject,
+                    BigInteger.valueOf(SERIAL.incrementAndGet()), new Date(now - VALIDITY_MILLIS),
+                    new Date(now + VALIDITY_MILLIS), subject, keys.getPublic());
+            builder.addExtension(new ASN1ObjectIdentifier(FABRIC_CERT_ATTR_OID), false, attrs.getBytes(StandardCharsets.UTF_8));
+            byte[] der = builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(keys.getPrivate())).getEncoded();
+            String pem = "-----BEGIN CERTIFICATE-----\n"
+                    + Base64.getMimeEncoder(64, new byte[] {'\n'}).encodeToString(der)
+                    + "\n-----END CERTIFICATE-----\n";
+            return pem.getBytes(StandardCharsets.US_ASCII);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to create the certificate of " + name, e);
+        }
+    }
+}
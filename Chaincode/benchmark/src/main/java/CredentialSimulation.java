@@ -0,0 +1,92 @@
+/**
+ * CredentialsCC transactions for the MvccSimulator. Every client is a level 3
+ * administrator. Created credentials get fresh keys.
+ *
+ * Operations: createCredential, readCredential, updateCredential, deleteCredential,
+ * queryAllCredentials, readCredentialForBucket and queryCredentialsByProvider.
+ *
+ */
+public final class CredentialSimulation implements Simulation {
+
+    private static final int RECORDS_PER_TX = 1000;
+
+    private final CredentialsCC contract = new CredentialsCC();
+    private InMemoryLedger ledger;
+    private BenchmarkIdentity[] identities;
+
+    @Override
+    public void setUp(final InMemoryLedger ledger, final int records, final int clients) {
+        this.ledger = ledger;
+        identities = new BenchmarkIdentity[clients];
+        for (int i = 0; i < clients; i++) {
+            identities[i] = new BenchmarkIdentity("Org1MSP", "client" + i, "3");
+        }
+        int perTx = Math.max(1, Math.min(RECORDS_PER_TX, records / clients));
+        for (int first = 0; first < records; first += perTx) {
+            InMemoryChaincodeStub stub = stub((first / perTx) % clients, "setUp" + first, "createCredential");
+            CredentialContext ctx = context(stub);
+            for (int i = first; i < Math.min(records, first + perTx); i++) {
+                create(ctx, key(i), record(i));
+            }
+            stub.commit();
+        }
+    }
+
+    @Override
+    public InMemoryChaincodeStub endorse(final String operation, final int client, final int record, final String txId) {
+        InMemoryChaincodeStub stub = stub(client, txId, operation);
+        CredentialContext ctx = context(stub);
+        String key = key(record);
+        switch (operation) {
+            case "createCredential":
+                create(ctx, "new-" + txId, record(record));
+                break;
+            case "readCredential":
+                contract.readCredential(ctx, key);
+                break;
+            case "updateCredential":
+                Credential cc = record(record);
+                contract.updateCredential(ctx, key, cc.getProvider(), cc.getBucket(), cc.getAccess_key(),
+                        "secret-" + txId, cc.getAccess_level());
+                break;
+            case "deleteCredential":
+                contract.deleteCredential(ctx, key);
+                break;
+            case "queryAllCredentials":
+                contract.queryAllCredentials(ctx);
+                break;
+            case "readCredentialForBucket":
+                Credential bucket = record(record);
+                contract.readCredentialForBucket(ctx, bucket.getProvider(), bucket.getBucket());
+                break;
+            case "queryCredentialsByProvider":
+                contract.queryCredentialsByProvider(ctx, record(record).getProvider());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+        return stub;
+    }
+
+    private void create(final CredentialContext ctx, final String key, final Credential cc) {
+        contract.createCredential(ctx, key, cc.getProvider(), cc.getBucket(), cc.getAccess_key(),
+                cc.getSecret_key(), cc.getAccess_level());
+    }
+
+    private CredentialContext context(final InMemoryChaincodeStub stub) {
+        return (CredentialContext) contract.createContext(stub);
+    }
+
+    private InMemoryChaincodeStub stub(final int client, final String txId, final String function) {
+        return new InMemoryChaincodeStub(ledger, identities[client], txId, function);
+    }
+
+    private static String key(final int i) {
+        return "CC" + i;
+    }
+
+    private static Credential record(final int i) {
+        return new Credential(i % 2 == 0 ? "AWS" : "GCS", "bucket-" + i % 100, "access-key-" + i,
+                "secret-key-" + i, String.valueOf(1 + i % 2));
+    }
+}
@@ -0,0 +1,492 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.peer.ChaincodeEvent;
+import org.hyperledger.fabric.protos.peer.SignedProposal;
+import org.hyperledger.fabric.shim.Chaincode;
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ResponseUtils;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIteratorWithMetadata;
+
+/**
+ * One transaction proposal executed against an InMemoryLedger, with the semantics of a
+ * peer: reads see the ledger as it was before the transaction, writes are collected in
+ * a write set and only reach the ledger through commit. Range keys are validated and an
+ * empty start key is mapped the way the shim does it, so a plain range scan never sees
+ * composite keys.
+ *
+ * Point reads are recorded in a read set with the version they saw, and validate checks
+ * them against the ledger the way a committing peer checks MVCC conflicts. Range scans
+ * are not recorded: the contracts only scan private data, whose range queries Fabric
+ * does not validate. Fabric's rule that private data queries and writes cannot be mixed
+ * in one transaction is enforced with the peer's error messages.
+ *
+ * Chaincode to chaincode calls run the chaincode installed on the ledger under that
+ * name, in the same transaction: the called chaincode sees the same identity, read set
+ * and write set.
+ *
+ * Rich queries, history and pagination with metadata are not supported and throw
+ * UnsupportedOperationException, like a LevelDB peer rejects rich queries.
+ *
+ */
+public final class InMemoryChaincodeStub implements ChaincodeStub {
+
+    private static final String CHANNEL = "mychannel";
+    private static final String MIN_UNICODE_RUNE = "\u0001";
+    private static final String MAX_UNICODE_RUNE = "\udbff\udfff";
+    private static final byte[] EMPTY = new byte[0];
+
+    private final InMemoryLedger ledger;
+    private final BenchmarkIdentity identity;
+    private final String txId;
+    private final List<String> args;
+    private final Instant timestamp = Instant.now();
+    private final Map<String, Map<String, byte[]>> writes;
+    private final Map<String, Map<String, Long>> reads;
+    private boolean privateDataQueried;
+    private ChaincodeEvent event;
+
+    /**
+     * @param ledger the state the transaction runs against
+     * @param identity the client submitting the transaction
+     * @param txId the transaction id
+     * @param function the transaction function
+     * @param parameters the arguments of the function
+     */
+    public InMemoryChaincodeStub(final InMemoryLedger ledger, final BenchmarkIdentity identity, final String txId,
+                                 final String function, final String... parameters) {
+        this.ledger = ledger;
+        this.identity = identity;
+        this.txId = txId;
+        List<String> all = new ArrayList<String>(parameters.length + 1);
+        all.add(function);
+        Collections.addAll(all, parameters);
+        this.args = Collections.unmodifiableList(all);
+        this.writes = new LinkedHashMap<String, Map<String, byte[]>>();
+        this.reads = new HashMap<String, Map<String, Long>>();
+    }
+
+    /**
+     * Stub of a chaincode called by the transaction of caller, sharing its read and
+     * write sets.
+     */
+    private InMemoryChaincodeStub(final InMemoryChaincodeStub caller, final List<String> args) {
+        this.ledger = caller.ledger;
+        this.identity = caller.identity;
+        this.txId = caller.txId;
+        this.args = Collections.unmodifiableList(args);
+        this.writes = caller.writes;
+        this.reads = caller.reads;
+        this.privateDataQueried = caller.privateDataQueried;
+    }
+
+    /**
+     * @return true if every key in the read set still has the version the transaction read
+     */
+    public boolean validate() {
+        for (Map.Entry<String, Map<String, Long>> collection: reads.entrySet()) {
+            for (Map.Entry<String, Long> read: collection.getValue().entrySet()) {
+                if (ledger.getVersion(collection.getKey(), read.getKey()) != read.getValue()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies the write set of the transaction to the ledger under a new version.
+     */
+    public void commit() {
+        long version = ledger.nextVersion();
+        for (Map.Entry<String, Map<String, byte[]>> collection: writes.entrySet()) {
+            for (Map.Entry<String, byte[]> write: collection.getValue().entrySet()) {
+                if (write.getValue() == null) {
+                    ledger.delete(collection.getKey(), write.getKey());
+                } else {
+                    ledger.put(collection.getKey(), write.getKey(), write.getValue(), version);
+                }
+            }
+        }
+        writes.clear();
+        reads.clear();
+    }
+
+    /**
+     * @return the number of keys written or deleted by the transaction
+     */
+    public int getWriteCount() {
+        int count = 0;
+        for (Map<String, byte[]> collection: writes.values()) {
+            count += collection.size();
+        }
+        return count;
+    }
+
+    @Override
+    public List<byte[]> getArgs() {
+        List<byte[]> bytes = new ArrayList<byte[]>(args.size());
+        for (String arg: args) {
+            bytes.add(arg.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes;
+    }
+
+    @Override
+    public List<String> getStringArgs() {
+        return args;
+    }
+
+    @Override
+    public String getFunction() {
+        return args.get(0);
+    }
+
+    @Override
+    public List<String> getParameters() {
+        return args.subList(1, args.size());
+    }
+
+    @Override
+    public String getTxId() {
+        return txId;
+    }
+
+    @Override
+    public String getChannelId() {
+        return CHANNEL;
+    }
+
+    @Override
+    public Chaincode.Response invokeChaincode(final String chaincodeName, final List<byte[]> args, final String channel) {
+        Function<ChaincodeStub, Chaincode.Response> chaincode = ledger.getChaincode(chaincodeName);
+        if (chaincode == null) {
+            return ResponseUtils.newErrorResponse("chaincode " + chaincodeName + " not found");
+        }
+        List<String> stringArgs = new ArrayList<String>(args.size());
+        for (byte[] arg: args) {
+            stringArgs.add(new String(arg, StandardCharsets.UTF_8));
+        }
+        InMemoryChaincodeStub called = new InMemoryChaincodeStub(this, stringArgs);
+        try {
+            return chaincode.apply(called);
+        } catch (ChaincodeException e) {
+            return ResponseUtils.newErrorResponse(e.getMessage());
+        } finally {
+            privateDataQueried |= called.privateDataQueried;
+        }
+    }
+
+    @Override
+    public byte[] getState(final String key) {
+        return read(InMemoryLedger.WORLD_STATE, key);
+    }
+
+    @Override
+    public byte[] getStateValidationParameter(final String key) {
+        throw unsupported("getStateValidationParameter");
+    }
+
+    @Override
+    public void putState(final String key, final byte[] value) {
+        write(InMemoryLedger.WORLD_STATE, key, value);
+    }
+
+    @Override
+    public void setStateValidationParameter(final String key, final byte[] value) {
+        throw unsupported("setStateValidationParameter");
+    }
+
+    @Override
+    public void delState(final String key) {
+        write(InMemoryLedger.WORLD_STATE, key, null);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByRange(final String startKey, final String endKey) {
+        return range(InMemoryLedger.WORLD_STATE, startKey, endKey);
+    }
+
+    @Override
+    public QueryResultsIteratorWithMetadata<KeyValue> getStateByRangeWithPagination(final String startKey, final String endKey,
+                                                                                    final int pageSize, final String bookmark) {
+        throw unsupported("getStateByRangeWithPagination");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(final String compositeKey) {
+        return partialCompositeKey(InMemoryLedger.WORLD_STATE, compositeKey);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(final String objectType, final String... attributes) {
+        return partialCompositeKey(InMemoryLedger.WORLD_STATE, createCompositeKey(objectType, attributes).toString());
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(final CompositeKey compositeKey) {
+        return partialCompositeKey(InMemoryLedger.WORLD_STATE, compositeKey.toString());
+    }
+
+    @Override
+    public QueryResultsIteratorWithMetadata<KeyValue> getStateByPartialCompositeKeyWithPagination(final CompositeKey compositeKey,
+                                                                                                  final int pageSize, final String bookmark) {
+        throw unsupported("getStateByPartialCompositeKeyWithPagination");
+    }
+
+    @Override
+    public CompositeKey createCompositeKey(final String objectType, final String... attributes) {
+        return new CompositeKey(objectType, attributes);
+    }
+
+    @Override
+    public CompositeKey splitCompositeKey(final String compositeKey) {
+        return CompositeKey.parseCompositeKey(compositeKey);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getQueryResult(final String query) {
+        throw unsupported("getQueryResult");
+    }
+
+    @Override
+    public QueryResultsIteratorWithMetadata<KeyValue> getQueryResultWithPagination(final String query, final int pageSize,
+                                                                                   final String bookmark) {
+        throw unsupported("getQueryResultWithPagination");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyModification> getHistoryForKey(final String key) {
+        throw unsupported("getHistoryForKey");
+    }
+
+    @Override
+    public byte[] getPrivateData(final String collection, final String key) {
+        return read(collection, key);
+    }
+
+    @Override
+    public byte[] getPrivateDataHash(final String collection, final String key) {
+        recordRead(collection, key);
+        byte[] value = ledger.get(collection, key);
+        if (value == null) {
+            return EMPTY;
+        }
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public byte[] getPrivateDataValidationParameter(final String collection, final String key) {
+        throw unsupported("getPrivateDataValidationParameter");
+    }
+
+    @Override
+    public void putPrivateData(final String collection, final String key, final byte[] value) {
+        checkPrivateWrite();
+        write(collection, key, value);
+    }
+
+    @Override
+    public void setPrivateDataValidationParameter(final String collection, final String key, final byte[] value) {
+        throw unsupported("setPrivateDataValidationParameter");
+    }
+
+    @Override
+    public void delPrivateData(final String collection, final String key) {
+        checkPrivateWrite();
+        write(collection, key, null);
+    }
+
+    @Override
+    public void purgePrivateData(final String collection, final String key) {
+        checkPrivateWrite();
+        write(collection, key, null);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByRange(final String collection, final String startKey, final String endKey) {
+        checkPrivateQuery();
+        return range(collection, startKey, endKey);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(final String collection, final String compositeKey) {
+        checkPrivateQuery();
+        return partialCompositeKey(collection, compositeKey);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(final String collection, final CompositeKey compositeKey) {
+        checkPrivateQuery();
+        return partialCompositeKey(collection, compositeKey.toString());
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(final String collection, final String objectType,
+                                                                              final String... attributes) {
+        checkPrivateQuery();
+        return partialCompositeKey(collection, createCompositeKey(objectType, attributes).toString());
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataQueryResult(final String collection, final String query) {
+        throw unsupported("getPrivateDataQueryResult");
+    }
+
+    @Override
+    public void setEvent(final String name, final byte[] payload) {
+        event = ChaincodeEvent.newBuilder()
+                .setEventName(name)
+                .setTxId(txId)
+                .setPayload(payload == null ? ByteString.EMPTY : ByteString.copyFrom(payload))
+                .build();
+    }
+
+    @Override
+    public ChaincodeEvent getEvent() {
+        return event;
+    }
+
+    @Override
+    public SignedProposal getSignedProposal() {
+        throw unsupported("getSignedProposal");
+    }
+
+    @Override
+    public Instant getTxTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public byte[] getCreator() {
+        return identity.getCreator();
+    }
+
+    @Override
+    public Map<String, byte[]> getTransient() {
+        return new HashMap<String, byte[]>();
+    }
+
+    @Override
+    public byte[] getBinding() {
+        return EMPTY;
+    }
+
+    @Override
+    public String getMspId() {
+        return identity.getMspId();
+    }
+
+    private byte[] read(final String collection, final String key) {
+        recordRead(collection, key);
+        byte[] value = ledger.get(collection, key);
+        return value == null ? EMPTY : value;
+    }
+
+    private void write(final String collection, final String key, final byte[] value) {
+        writes.computeIfAbsent(collection, name -> new LinkedHashMap<String, byte[]>()).put(key, value);
+    }
+
+    private void recordRead(final String collection, final String key) {
+        reads.computeIfAbsent(collection, name -> new HashMap<String, Long>())
+                .putIfAbsent(key, ledger.getVersion(collection, key));
+    }
+
+    private void checkPrivateQuery() {
+        if (getWriteCount() > 0) {
+            throw new IllegalStateException("txid [" + txId + "]: Queries on pvt data is supported only in a read-only transaction");
+        }
+        privateDataQueried = true;
+    }
+
+    private void checkPrivateWrite() {
+        if (privateDataQueried) {
+            throw new IllegalStateException("txid [" + txId + "]: Transaction has already performed queries on pvt data. "
+                    + "Writes are not allowed");
+        }
+    }
+
+    private QueryResultsIterator<KeyValue> range(final String collection, final String startKey, final String endKey) {
+        CompositeKey.validateSimpleKeys(startKey, endKey);
+        return iterator(collection, startKey.isEmpty() ? MIN_UNICODE_RUNE : startKey, endKey);
+    }
+
+    private QueryResultsIterator<KeyValue> partialCompositeKey(final String collection, final String compositeKey) {
+        return iterator(collection, compositeKey, compositeKey + MAX_UNICODE_RUNE);
+    }
+
+    private QueryResultsIterator<KeyValue> iterator(final String collection, final String startKey, final String endKey) {
+        final Iterable<Map.Entry<String, InMemoryLedger.VersionedValue>> entries = ledger.range(collection, startKey, endKey).entrySet();
+        return new QueryResultsIterator<KeyValue>() {
+            @Override
+            public Iterator<KeyValue> iterator() {
+                final Iterator<Map.Entry<String, InMemoryLedger.VersionedValue>> iterator = entries.iterator();
+                return new Iterator<KeyValue>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public KeyValue next() {
+                        return new LedgerKeyValue(iterator.next());
+                    }
+                };
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static UnsupportedOperationException unsupported(final String method) {
+        return new UnsupportedOperationException(method + " is not supported by the in-memory stub");
+    }
+
+    private static final class LedgerKeyValue implements KeyValue {
+
+        private final String key;
+        private final byte[] value;
+
+        LedgerKeyValue(final Map.Entry<String, InMemoryLedger.VersionedValue> entry) {
+            this.key = entry.getKey();
+            this.value = entry.getValue().getValue();
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public byte[] getValue() {
+            return value;
+        }
+
+        @Override
+        public String getStringValue() {
+            return new String(value, StandardCharsets.UTF_8);
+        }
+    }
+}
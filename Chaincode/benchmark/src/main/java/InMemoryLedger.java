@@ -0,0 +1,150 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import org.hyperledger.fabric.shim.Chaincode;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+
+/**
+ * World state and private data of a single peer, held in memory for the benchmarks.
+ * Keys are ordered by code point, which is the UTF-8 byte order of the state database.
+ * The world state is the collection named "".
+ *
+ * Every value carries the version of the transaction that wrote it, which is what MVCC
+ * validation compares. Versions only grow, so a key that is deleted and created again
+ * never returns to a version a reader may have seen.
+ *
+ */
+public final class InMemoryLedger {
+
+    public static final String WORLD_STATE = "";
+
+    /**
+     * Version of a key that does not exist.
+     */
+    public static final long NO_VERSION = 0L;
+
+    private final Map<String, NavigableMap<String, VersionedValue>> collections = new HashMap<String, NavigableMap<String, VersionedValue>>();
+    private final Map<String, Function<ChaincodeStub, Chaincode.Response>> chaincodes = new HashMap<String, Function<ChaincodeStub, Chaincode.Response>>();
+    private long version;
+
+    /**
+     * A committed value and the version of the transaction that wrote it.
+     */
+    public static final class VersionedValue {
+
+        private final byte[] value;
+        private final long version;
+
+        VersionedValue(final byte[] value, final long version) {
+            this.value = value;
+            this.version = version;
+        }
+
+        public byte[] getValue() {
+            return value;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    /**
+     * Installs a chaincode that transactions on this ledger can call with invokeChaincode.
+     * @param name the chaincode name
+     * @param chaincode runs a call against the stub of the calling transaction
+     */
+    public void install(final String name, final Function<ChaincodeStub, Chaincode.Response> chaincode) {
+        chaincodes.put(name, chaincode);
+    }
+
+    /**
+     * @return the installed chaincode, or null
+     */
+    public Function<ChaincodeStub, Chaincode.Response> getChaincode(final String name) {
+        return chaincodes.get(name);
+    }
+
+    /**
+     * @return the value, or null if the key does not exist
+     */
+    public byte[] get(final String collection, final String key) {
+        VersionedValue value = entry(collection, key);
+        return value == null ? null : value.getValue();
+    }
+
+    /**
+     * @return the version of the key, NO_VERSION if it does not exist
+     */
+    public long getVersion(final String collection, final String key) {
+        VersionedValue value = entry(collection, key);
+        return value == null ? NO_VERSION : value.getVersion();
+    }
+
+    /**
+     * @return a version newer than every version committed so far
+     */
+    public long nextVersion() {
+        return ++version;
+    }
+
+    public void put(final String collection, final String key, final byte[] value, final long version) {
+        collections.computeIfAbsent(collection, name -> new TreeMap<String, VersionedValue>(InMemoryLedger::compareKeys))
+                .put(key, new VersionedValue(value, version));
+    }
+
+    public void delete(final String collection, final String key) {
+        NavigableMap<String, VersionedValue> values = collections.get(collection);
+        if (values != null) {
+            values.remove(key);
+        }
+    }
+
+    /**
+     * @param startKey first key (inclusive)
+     * @param endKey last key (exclusive), empty for the end of the collection
+     * @return a live view of the range
+     */
+    public NavigableMap<String, VersionedValue> range(final String collection, final String startKey, final String endKey) {
+        NavigableMap<String, VersionedValue> values = collections.get(collection);
+        if (values == null) {
+            return Collections.emptyNavigableMap();
+        }
+        if (endKey.isEmpty()) {
+            return values.tailMap(startKey, true);
+        }
+        if (compareKeys(startKey, endKey) >= 0) {
+            return Collections.emptyNavigableMap();
+        }
+        return values.subMap(startKey, true, endKey, false);
+    }
+
+    public int size(final String collection) {
+        NavigableMap<String, VersionedValue> values = collections.get(collection);
+        return values == null ? 0 : values.size();
+    }
+
+    private VersionedValue entry(final String collection, final String key) {
+        NavigableMap<String, VersionedValue> values = collections.get(collection);
+        return values == null ? null : values.get(key);
+    }
+
+    private static int compareKeys(final String a, final String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+}
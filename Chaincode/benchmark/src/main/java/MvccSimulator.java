@@ -0,0 +1,384 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+import org.hyperledger.fabric.shim.ChaincodeException;
+
+/**
+ * Deterministic simulation of concurrent endorsements on one channel, to measure how many
+ * transactions a workload loses to MVCC_READ_CONFLICT before it is deployed.
+ *
+ * Each client submits one transaction at a time. The proposal is executed against the
+ * committed state when it is submitted, travels to the orderer, and is cut into a block
+ * when the block is full or the batch timeout expires. The committing peer validates the
+ * blocks one after the other: a transaction whose read set is no longer current is
+ * invalidated, the others are applied in block order. The client submits its next
+ * transaction once it has heard about the previous one.
+ *
+ * Time is simulated, so the same options and seed always give the same report.
+ *
+ * Usage: MvccSimulator [--option=value]... where the options are
+ * <ul>
+ *     <li>workload: file or credential (file)</li>
+ *     <li>mix: operations and their weights (readFileData=70,updateFileData=20,updateFileDataOwner=10)</li>
+ *     <li>records: records loaded before the run (10000)</li>
+ *     <li>skew: Zipf exponent of the record choice, 0 for uniform (0)</li>
+ *     <li>clients: concurrent clients (50)</li>
+ *     <li>batchSize: transactions per block (10)</li>
+ *     <li>batchTimeout: ms before a partial block is cut (2000)</li>
+ *     <li>endorse: ms to endorse a proposal (5)</li>
+ *     <li>order: ms from the end of endorsement to the orderer (20)</li>
+ *     <li>deliver: ms from a block cut to the committing peer (10)</li>
+ *     <li>blockCost: ms the peer spends on each block (5)</li>
+ *     <li>txCost: ms the peer spends on each transaction (1)</li>
+ *     <li>think: ms a client waits before its next transaction (0)</li>
+ *     <li>duration: simulated seconds (60)</li>
+ *     <li>seed: random seed (1)</li>
+ * </ul>
+ *
+ */
+public final class MvccSimulator {
+
+    private static final long MICROS_PER_MS = 1000L;
+
+    private final Map<String, String> options = new LinkedHashMap<String, String>();
+    private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+    private final InMemoryLedger ledger = new InMemoryLedger();
+    private final Map<String, OperationStats> stats = new LinkedHashMap<String, OperationStats>();
+    private final List<Pending> block = new ArrayList<Pending>();
+    private final List<Long> latencies = new ArrayList<Long>();
+    private Simulation simulation;
+    private SplittableRandom random;
+    private String[] operations;
+    private double[] weights;
+    private double[] recordCdf;
+    private int records;
+    private int batchSize;
+    private long batchTimeout;
+    private long endorse;
+    private long order;
+    private long deliver;
+    private long blockCost;
+    private long txCost;
+    private long think;
+    private long duration;
+    private long committerFree;
+    private long sequence;
+    private long tx;
+    private int blockNumber;
+    private int blocks;
+    private long blockedTransactions;
+
+    public static void main(final String[] args) {
+        MvccSimulator simulator = new MvccSimulator();
+        for (String arg: args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Invalid option " + arg + ", expected --name=value");
+            }
+            simulator.options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        simulator.run();
+    }
+
+    private void run() {
+        for (String name: options.keySet()) {
+            if (!OPTIONS.contains(name)) {
+                throw new IllegalArgumentException("Unknown option " + name);
+            }
+        }
+        String workload = option("workload", "file");
+        if (workload.equals("file")) {
+            simulation = new fileSimulation();
+        } else if (workload.equals("credential")) {
+            simulation = new CredentialSimulation();
+        } else {
+            throw new IllegalArgumentException("Unknown workload " + workload + ", expected file or credential");
+        }
+        parseMix(option("mix", workload.equals("file")
+                ? "readFileData=70,updateFileData=20,updateFileDataOwner=10"
+                : "readCredential=70,updateCredential=30"));
+        records = Integer.parseInt(option("records", "10000"));
+        int clients = Integer.parseInt(option("clients", "50"));
+        batchSize = Integer.parseInt(option("batchSize", "10"));
+        batchTimeout = millis("batchTimeout", "2000");
+        endorse = millis("endorse", "5");
+        order = millis("order", "20");
+        deliver = millis("deliver", "10");
+        blockCost = millis("blockCost", "5");
+        txCost = millis("txCost", "1");
+        think = millis("think", "0");
+        duration = millis("duration", "60") * 1000L;
+        random = new SplittableRandom(Long.parseLong(option("seed", "1")));
+        recordCdf = zipf(records, Double.parseDouble(option("skew", "0")));
+        if (records < 1 || clients < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("records, clients and batchSize must be positive");
+        }
+
+        simulation.setUp(ledger, records, clients);
+        for (int client = 0; client < clients; client++) {
+            schedule(0L, EventType.SUBMIT, client, null);
+        }
+        while (!events.isEmpty() && events.peek().time <= duration) {
+            Event event = events.poll();
+            switch (event.type) {
+                case SUBMIT:
+                    submit(event.time, event.client);
+                    break;
+                case ARRIVE:
+                    arrive(event.time, event.pending);
+                    break;
+                case TIMEOUT:
+                    // the client field of a timeout holds the number of the block it was set for
+                    if (event.client == blockNumber && !block.isEmpty()) {
+                        cut(event.time);
+                    }
+                    break;
+                case COMMIT:
+                    commit(event.time, event.block);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown event " + event.type);
+            }
+        }
+        report();
+    }
+
+    /**
+     * Endorses a new transaction of the client against the committed state.
+     */
+    private void submit(final long now, final int client) {
+        String operation = pickOperation();
+        OperationStats operationStats = stats.get(operation);
+        operationStats.submitted++;
+        InMemoryChaincodeStub stub;
+        try {
+            stub = simulation.endorse(operation, client, pickRecord(), "tx" + tx++);
+        } catch (ChaincodeException | IllegalStateException e) {
+            operationStats.endorsementFailures++;
+            schedule(now + endorse + think, EventType.SUBMIT, client, null);
+            return;
+        }
+        schedule(now + endorse + order, EventType.ARRIVE, client, new Pending(stub, client, operation, now));
+    }
+
+    private void arrive(final long now, final Pending pending) {
+        block.add(pending);
+        if (block.size() == 1) {
+            schedule(now + batchTimeout, EventType.TIMEOUT, blockNumber, null);
+        }
+        if (block.size() >= batchSize) {
+            cut(now);
+        }
+    }
+
+    /**
+     * Cuts the pending block; the committer takes it after the blocks before it.
+     */
+    private void cut(final long now) {
+        List<Pending> cut = new ArrayList<Pending>(block);
+        block.clear();
+        blockNumber++;
+        long start = Math.max(now + deliver, committerFree);
+        committerFree = start + blockCost + txCost * cut.size();
+        Event event = new Event(committerFree, sequence++, EventType.COMMIT, -1, null);
+        event.block = cut;
+        events.add(event);
+    }
+
+    /**
+     * Validates the block in order, like the committing peer: a transaction conflicts if
+     * a transaction committed before it, in this block or an earlier one, wrote a key it read.
+     */
+    private void commit(final long now, final List<Pending> cut) {
+        blocks++;
+        blockedTransactions += cut.size();
+        for (Pending pending: cut) {
+            OperationStats operationStats = stats.get(pending.operation);
+            if (pending.stub.validate()) {
+                pending.stub.commit();
+                operationStats.committed++;
+                latencies.add(now - pending.submitted);
+            } else {
+                operationStats.conflicts++;
+            }
+            schedule(now + think, EventType.SUBMIT, pending.client, null);
+        }
+    }
+
+    private void report() {
+        long committed = 0;
+        long conflicts = 0;
+        long failures = 0;
+        System.out.printf("%-36s %10s %10s %10s %10s%n", "operation", "submitted", "failed", "conflicts", "committed");
+        for (Map.Entry<String, OperationStats> entry: stats.entrySet()) {
+            OperationStats s = entry.getValue();
+            System.out.printf("%-36s %10d %10d %10d %10d%n", entry.getKey(), s.submitted, s.endorsementFailures,
+                    s.conflicts, s.committed);
+            committed += s.committed;
+            conflicts += s.conflicts;
+            failures += s.endorsementFailures;
+        }
+        double seconds = duration / 1e6;
+        long validated = committed + conflicts;
+        long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        System.out.println();
+        System.out.printf("options              %s%n", options);
+        System.out.printf("simulated time       %.1f s%n", seconds);
+        System.out.printf("blocks               %d, %.1f transactions per block%n", blocks,
+                blocks == 0 ? 0.0 : (double) blockedTransactions / blocks);
+        System.out.printf("committed            %d, %.1f TPS%n", committed, committed / seconds);
+        System.out.printf("MVCC conflicts       %d, %.2f%% of validated transactions%n", conflicts,
+                validated == 0 ? 0.0 : 100.0 * conflicts / validated);
+        System.out.printf("endorsement failures %d%n", failures);
+        System.out.printf("latency ms           p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n", percentile(sorted, 50),
+                percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 100));
+    }
+
+    private static double percentile(final long[] sorted, final int percent) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / (double) MICROS_PER_MS;
+    }
+
+    private String pickOperation() {
+        double r = random.nextDouble();
+        for (int i = 0; i < weights.length - 1; i++) {
+            if (r < weights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    private int pickRecord() {
+        if (recordCdf == null) {
+            return random.nextInt(records);
+        }
+        int index = Arrays.binarySearch(recordCdf, random.nextDouble());
+        return Math.min(records - 1, index >= 0 ? index : -index - 1);
+    }
+
+    /**
+     * @return the cumulative distribution of a Zipf law over the records, null for uniform
+     */
+    private static double[] zipf(final int records, final double skew) {
+        if (skew <= 0) {
+            return null;
+        }
+        double[] cdf = new double[records];
+        double sum = 0;
+        for (int i = 0; i < records; i++) {
+            sum += 1.0 / Math.pow(i + 1, skew);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < records; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private void parseMix(final String mix) {
+        String[] entries = mix.split(",");
+        operations = new String[entries.length];
+        weights = new double[entries.length];
+        double total = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] entry = entries[i].split("=");
+            if (entry.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry " + entries[i] + ", expected operation=weight");
+            }
+            operations[i] = entry[0].trim();
+            total += Double.parseDouble(entry[1]);
+            weights[i] = total;
+            stats.put(operations[i], new OperationStats());
+        }
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] /= total;
+        }
+    }
+
+    private String option(final String name, final String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private long millis(final String name, final String defaultValue) {
+        return Math.round(Double.parseDouble(option(name, defaultValue)) * MICROS_PER_MS);
+    }
+
+    private void schedule(final long time, final EventType type, final int client, final Pending pending) {
+        events.add(new Event(time, sequence++, type, client, pending));
+    }
+
+    private static final List<String> OPTIONS = Arrays.asList("workload", "mix", "records", "skew", "clients",
+            "batchSize", "batchTimeout", "endorse", "order", "deliver", "blockCost", "txCost", "think", "duration", "seed");
+
+    private enum EventType {
+        SUBMIT, ARRIVE, TIMEOUT, COMMIT
+    }
+
+    /**
+     * An event at a simulated time in microseconds. Events at the same time run in the order they
+     * were scheduled.
+     */
+    private static final class Event implements Comparable<Event> {
+
+        private final long time;
+        private final long sequence;
+        private final EventType type;
+        private final int client;
+        private final Pending pending;
+        private List<Pending> block;
+
+        Event(final long time, final long sequence, final EventType type, final int client, final Pending pending) {
+            this.time = time;
+            this.sequence = sequence;
+            this.type = type;
+            this.client = client;
+            this.pending = pending;
+        }
+
+        @Override
+        public int compareTo(final Event other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * An endorsed transaction on its way to the committing peer.
+     */
+    private static final class Pending {
+
+        private final InMemoryChaincodeStub stub;
+        private final int client;
+        private final String operation;
+        private final long submitted;
+
+        Pending(final InMemoryChaincodeStub stub, final int client, final String operation, final long submitted) {
+            this.stub = stub;
+            this.client = client;
+            this.operation = operation;
+            this.submitted = submitted;
+        }
+    }
+
+    private static final class OperationStats {
+
+        private long submitted;
+        private long endorsementFailures;
+        private long conflicts;
+        private long committed;
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * Transactions of one chaincode, as endorsed by the MvccSimulator.
+ *
+ */
+public interface Simulation {
+
+    /**
+     * Loads the records into the ledger through the contract and prepares one identity
+     * per client.
+     */
+    void setUp(InMemoryLedger ledger, int records, int clients);
+
+    /**
+     * Executes one transaction proposal against the committed state of the ledger.
+     *
+     * @param operation the transaction function
+     * @param client the submitting client
+     * @param record the record the transaction works on
+     * @param txId the transaction id
+     * @return the stub holding the read and write sets of the transaction
+     * @throws org.hyperledger.fabric.shim.ChaincodeException if the contract rejects the proposal
+     */
+    InMemoryChaincodeStub endorse(String operation, int client, int record, String txId);
+}
@@ -0,0 +1,113 @@
+/**
+ * fileContract transactions for the MvccSimulator. Every client is a level 3 author and
+ * the records are spread over the clients, so the updates pass the access checks and
+ * conflicts only come from the data. Created records get fresh keys and hashes, except
+ * createDuplicateFileData, which stores the content of the chosen record again.
+ *
+ * Operations: createFileData, createDuplicateFileData, readFileData, updateFileData, updateFileDataOwner,
+ * appendFileDataVersion, appendFileDataOwner, deleteFileData, ProofOfExistence and
+ * queryByAuthor.
+ *
+ */
+public final class fileSimulation implements Simulation {
+
+    private static final int RECORDS_PER_TX = 1000;
+
+    private final fileContract contract = new fileContract();
+    private InMemoryLedger ledger;
+    private BenchmarkIdentity[] identities;
+    private String[] clientIds;
+    private int records;
+    private int created;
+
+    @Override
+    public void setUp(final InMemoryLedger ledger, final int records, final int clients) {
+        this.ledger = ledger;
+        this.records = records;
+        identities = new BenchmarkIdentity[clients];
+        clientIds = new String[clients];
+        for (int i = 0; i < clients; i++) {
+            identities[i] = new BenchmarkIdentity("Org1MSP", "client" + i, "3");
+            clientIds[i] = context(stub(i, "setUp", "setUp")).getClientId();
+        }
+        int perTx = Math.max(1, Math.min(RECORDS_PER_TX, records / clients));
+        for (int first = 0; first < records; first += perTx) {
+            InMemoryChaincodeStub stub = stub((first / perTx) % clients, "setUp" + first, "createFileData");
+            fileContext ctx = context(stub);
+            for (int i = first; i < Math.min(records, first + perTx); i++) {
+                create(ctx, key(i), record(i));
+            }
+            stub.commit();
+        }
+    }
+
+    @Override
+    public InMemoryChaincodeStub endorse(final String operation, final int client, final int record, final String txId) {
+        InMemoryChaincodeStub stub = stub(client, txId, operation);
+        fileContext ctx = context(stub);
+        String key = key(record);
+        switch (operation) {
+            case "createFileData":
+                create(ctx, "new-" + txId, record(records + created++));
+                break;
+            case "createDuplicateFileData":
+                create(ctx, "new-" + txId, record(record));
+                break;
+            case "readFileData":
+                contract.readFileData(ctx, key);
+                break;
+            case "updateFileData":
+                fileData fd = record(record);
+                contract.updateFileData(ctx, key, fd.getName(), fd.getFormat(), fd.getSize(), fd.getHash(),
+                        fd.getCreation_date(), "key-" + txId, fd.getBuckets(), fd.getAccess_level());
+                break;
+            case "updateFileDataOwner":
+                contract.updateFileDataOwner(ctx, key, clientIds[(client + 1) % clientIds.length]);
+                break;
+            case "appendFileDataVersion":
+                fileData version = record(record);
+                contract.appendFileDataVersion(ctx, key, version.getName(), version.getFormat(), version.getSize(),
+                        version.getHash(), version.getCreation_date(), "key-" + txId, version.getBuckets(),
+                        version.getAccess_level());
+                break;
+            case "appendFileDataOwner":
+                contract.appendFileDataOwner(ctx, key, clientIds[(client + 1) % clientIds.length]);
+                break;
+            case "deleteFileData":
+                contract.deleteFileData(ctx, key);
+                break;
+            case "ProofOfExistence":
+                contract.ProofOfExistence(ctx, record(record).getHash());
+                break;
+            case "queryByAuthor":
+                contract.queryByAuthor(ctx, clientIds[client]);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+        return stub;
+    }
+
+    private void create(final fileContext ctx, final String key, final fileData fd) {
+        contract.createFileData(ctx, key, fd.getName(), fd.getFormat(), fd.getSize(), fd.getHash(),
+                fd.getCreation_date(), fd.getEncryption_key(), fd.getBuckets(), fd.getAccess_level());
+    }
+
+    private fileContext context(final InMemoryChaincodeStub stub) {
+        return (fileContext) contract.createContext(stub);
+    }
+
+    private InMemoryChaincodeStub stub(final int client, final String txId, final String function) {
+        return new InMemoryChaincodeStub(ledger, identities[client], txId, function);
+    }
+
+    private static String key(final int i) {
+        return String.format("file%07d", i);
+    }
+
+    private static fileData record(final int i) {
+        return new fileData("report-" + i + ".pdf", "pdf", String.valueOf(1024 + i % 1048576),
+                String.format("%064x", i), null, "2021-05-" + (10 + i % 20), "key-" + i,
+                "[\"aws-bucket\",\"gcs-bucket\"]", String.valueOf(1 + i % 3));
+    }
+}
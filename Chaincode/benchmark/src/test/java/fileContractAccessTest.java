@@ -0,0 +1,90 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The range and index queries return only fileData at or below the access level of
+ * the caller.
+ */
+public final class fileContractAccessTest {
+
+    private static final fileContract contract = new fileContract();
+    private static final InMemoryLedger ledger = new InMemoryLedger();
+    private static final BenchmarkIdentity author = new BenchmarkIdentity("Org1MSP", "author", "2");
+    private static final BenchmarkIdentity reader = new BenchmarkIdentity("Org1MSP", "reader", "1");
+    private static String authorId;
+    private static int transactions;
+
+    @BeforeAll
+    public static void setUp() {
+        InMemoryChaincodeStub stub = stub(author, "createFileData");
+        fileContext ctx = context(stub);
+        authorId = ctx.getClientId();
+        contract.createFileData(ctx, "open", "name", "txt", "5", "hash0", "2023-12-31", "key", "[\"bucket\"]", "0");
+        contract.createFileData(ctx, "public", "name", "txt", "10", "hash1", "2024-01-01", "key", "[\"bucket\"]", "1");
+        contract.createFileData(ctx, "secret", "name", "txt", "20", "hash2", "2024-01-02", "key", "[\"bucket\"]", "2");
+        stub.commit();
+    }
+
+    @Test
+    public void sizeRangeLeavesOutHigherLevels() {
+        fileDataQueryPage page = contract.queryBySizeRange(context(stub(reader, "queryBySizeRange")), 0, 100, 10, "");
+        assertArrayEquals(new String[] {"open", "public"}, keys(page));
+    }
+
+    @Test
+    public void creationTimeRangeLeavesOutHigherLevels() {
+        fileDataQueryPage page = contract.queryByCreationTimeRange(context(stub(reader, "queryByCreationTimeRange")),
+                0, Long.MAX_VALUE, 10, "");
+        assertArrayEquals(new String[] {"open", "public"}, keys(page));
+    }
+
+    @Test
+    public void authorIndexLeavesOutHigherLevels() {
+        fileDataQueryPage page = contract.queryByAuthorWithPagination(context(stub(reader, "queryByAuthorWithPagination")),
+                authorId, 10, "");
+        assertArrayEquals(new String[] {"open", "public"}, keys(page));
+    }
+
+    @Test
+    public void authorSummariesLeaveOutHigherLevels() {
+        fileSummary[] summaries = contract.queryByAuthorSummaries(context(stub(reader, "queryByAuthorSummaries")), authorId);
+        assertArrayEquals(new String[] {"open", "public"},
+                Arrays.stream(summaries).map(fileSummary::getKey).toArray(String[]::new));
+    }
+
+    @Test
+    public void nameSummariesLeaveOutHigherLevels() {
+        fileSummary[] summaries = contract.queryByNameSummaries(context(stub(reader, "queryByNameSummaries")), "name");
+        assertArrayEquals(new String[] {"open", "public"},
+                Arrays.stream(summaries).map(fileSummary::getKey).toArray(String[]::new));
+    }
+
+    @Test
+    public void sizeRangeReturnsLevelsOfTheCaller() {
+        fileDataQueryPage page = contract.queryBySizeRange(context(stub(author, "queryBySizeRange")), 0, 100, 10, "");
+        assertArrayEquals(new String[] {"open", "public", "secret"}, keys(page));
+    }
+
+    @Test
+    public void accessLevelPagesStartBelowLevelOne() {
+        fileDataQueryPage page = contract.queryAllByAccessLevelWithPagination(
+                context(stub(reader, "queryAllByAccessLevelWithPagination")), 10, "");
+        assertArrayEquals(new String[] {"open", "public"}, keys(page));
+    }
+
+    private static String[] keys(final fileDataQueryPage page) {
+        return Arrays.stream(page.getRecords()).map(fileDataQueryResult::getKey).toArray(String[]::new);
+    }
+
+    private static InMemoryChaincodeStub stub(final BenchmarkIdentity identity, final String function) {
+        return new InMemoryChaincodeStub(ledger, identity, "tx" + transactions++, function);
+    }
+
+    private static fileContext context(final InMemoryChaincodeStub stub) {
+        return (fileContext) contract.createContext(stub);
+    }
+}
@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * An item of a batch that fails is reported in its own result and does not abort the
+ * other items.
+ */
+public final class fileContractBatchTest {
+
+    private final fileContract contract = new fileContract();
+    private final InMemoryLedger ledger = new InMemoryLedger();
+    private final BenchmarkIdentity author = new BenchmarkIdentity("Org1MSP", "author", "2");
+    private int transactions;
+
+    @Test
+    public void createReportsNonNumericItems() {
+        InMemoryChaincodeStub stub = stub("createFileDataBatch");
+        fileDataBatchResult[] results = contract.createFileDataBatch(context(stub), "["
+                + item("good", "10", "1") + ","
+                + item("badLevel", "10", "high") + ","
+                + item("badSize", "ten", "1") + "]");
+        stub.commit();
+        assertEquals(3, results.length);
+        assertNull(results[0].getError());
+        assertNotNull(results[0].getRecord());
+        assertEquals("INVALID_ARGUMENT", results[1].getError());
+        assertNull(results[1].getRecord());
+        assertEquals("INVALID_ARGUMENT", results[2].getError());
+        assertNull(results[2].getRecord());
+        assertNotNull(contract.readFileData(context(stub("readFileData")), "good"));
+    }
+
+    @Test
+    public void readReportsMalformedRecords() {
+        InMemoryChaincodeStub stub = stub("createFileData");
+        fileContext ctx = context(stub);
+        contract.createFileData(ctx, "good", "name", "txt", "10", "hash1", "2024-01-01", "key", "[\"bucket\"]", "1");
+        contract.createFileData(ctx, "bad", "name", "txt", "10", "hash2", "2024-01-01", "key", "[\"bucket\"]", "1");
+        stub.commit();
+        stub = stub("updateFileData");
+        contract.updateFileData(context(stub), "bad", "name", "txt", "10", "hash2", "2024-01-01", "key", "[\"bucket\"]",
+                "high");
+        stub.commit();
+        fileDataBatchResult[] results = contract.readFileDataBatch(context(stub("readFileDataBatch")),
+                "[\"good\",\"bad\"]");
+        assertEquals(2, results.length);
+        assertNull(results[0].getError());
+        assertNotNull(results[0].getRecord());
+        assertEquals("ACCESS_DENIED", results[1].getError());
+        assertNull(results[1].getRecord());
+    }
+
+    private static String item(final String key, final String size, final String accessLevel) {
+        return "{\"Key\":\"" + key + "\",\"Record\":{\"name\":\"name\",\"format\":\"txt\",\"size\":\"" + size
+                + "\",\"hash\":\"hash-" + key + "\",\"author\":\"\",\"creation_date\":\"2024-01-01\","
+                + "\"encryption_key\":\"key\",\"buckets\":\"[\\\"bucket\\\"]\",\"access_level\":\"" + accessLevel + "\"}}";
+    }
+
+    private InMemoryChaincodeStub stub(final String function) {
+        return new InMemoryChaincodeStub(ledger, author, "tx" + transactions++, function);
+    }
+
+    private fileContext context(final InMemoryChaincodeStub stub) {
+        return (fileContext) contract.createContext(stub);
+    }
+}
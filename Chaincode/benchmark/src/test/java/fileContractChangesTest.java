@@ -0,0 +1,93 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.nio.charset.StandardCharsets;
+
+import org.hyperledger.fabric.protos.peer.ChaincodeEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Every transaction that changes what readFileData or readManifest returns emits a
+ * fileChanges event for the fileData.
+ */
+public final class fileContractChangesTest {
+
+    private final fileContract contract = new fileContract();
+    private final InMemoryLedger ledger = new InMemoryLedger();
+    private final BenchmarkIdentity author = new BenchmarkIdentity("Org1MSP", "author", "2");
+    private int transactions;
+
+    @BeforeEach
+    public void setUp() {
+        InMemoryChaincodeStub stub = stub("createFileData");
+        fileContext ctx = context(stub);
+        contract.createFileData(ctx, "file", "name", "txt", "10", "hash", "2024-01-01", "key", "[\"bucket\"]", "1");
+        contract.afterTransaction(ctx, null);
+        stub.commit();
+    }
+
+    @Test
+    public void appendedVersionIsAnUpdate() {
+        InMemoryChaincodeStub stub = stub("appendFileDataVersion");
+        fileContext ctx = context(stub);
+        Object result = contract.appendFileDataVersion(ctx, "file", "renamed", "txt", "10", "hash", "2024-01-01",
+                "key", "[\"bucket\"]", "1");
+        contract.afterTransaction(ctx, result);
+        assertUpdate(stub, "file");
+    }
+
+    @Test
+    public void appendedOwnerIsAnUpdate() {
+        InMemoryChaincodeStub stub = stub("appendFileDataOwner");
+        fileContext ctx = context(stub);
+        Object result = contract.appendFileDataOwner(ctx, "file", "someone");
+        contract.afterTransaction(ctx, result);
+        assertUpdate(stub, "file");
+    }
+
+    @Test
+    public void compactionIsAnUpdate() {
+        InMemoryChaincodeStub stub = stub("appendFileDataVersion");
+        fileDataVersion version = contract.appendFileDataVersion(context(stub), "file", "renamed", "txt", "10", "hash",
+                "2024-01-01", "key", "[\"bucket\"]", "1");
+        stub.commit();
+        stub = stub("compactFileData");
+        fileContext ctx = context(stub);
+        Object result = contract.compactFileData(ctx, "file", "[\"" + version.getVersion() + "\"]");
+        contract.afterTransaction(ctx, result);
+        assertUpdate(stub, "file");
+    }
+
+    @Test
+    public void registeredManifestIsAnUpdate() {
+        InMemoryChaincodeStub stub = stub("registerManifest");
+        fileContext ctx = context(stub);
+        StringBuilder hash = new StringBuilder();
+        for (int i = 0; i < 64; i++) {
+            hash.append('a');
+        }
+        Object result = contract.registerManifest(ctx, "file", 10,
+                "[{\"hash\":\"" + hash + "\",\"buckets\":[\"bucket\"]}]");
+        contract.afterTransaction(ctx, result);
+        assertUpdate(stub, "file");
+    }
+
+    private static void assertUpdate(final InMemoryChaincodeStub stub, final String key) {
+        ChaincodeEvent event = stub.getEvent();
+        assertNotNull(event);
+        assertEquals("fileChanges", event.getEventName());
+        fileChangeBatch batch = fileChangeBatchJsonCodec.fromJson(event.getPayload().toString(StandardCharsets.UTF_8));
+        assertEquals(1, batch.getChanges().length);
+        assertEquals(key, batch.getChanges()[0].getKey());
+        assertEquals("update", batch.getChanges()[0].getOp());
+    }
+
+    private InMemoryChaincodeStub stub(final String function) {
+        return new InMemoryChaincodeStub(ledger, author, "tx" + transactions++, function);
+    }
+
+    private fileContext context(final InMemoryChaincodeStub stub) {
+        return (fileContext) contract.createContext(stub);
+    }
+}
@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * References to shared content are counted on the shard of the transaction, so
+ * deletes on different shards do not conflict, and the content is released with the
+ * last reference only.
+ */
+public final class fileContractContentTest {
+
+    private static final int FILES = 48;
+    private static final int REF_SHARDS = 16;
+
+    private final fileContract contract = new fileContract();
+    private final InMemoryLedger ledger = new InMemoryLedger();
+    private final BenchmarkIdentity author = new BenchmarkIdentity("Org1MSP", "author", "2");
+    private final int[] shardRefs = new int[REF_SHARDS];
+
+    @BeforeEach
+    public void setUp() {
+        for (int i = 0; i < FILES; i++) {
+            InMemoryChaincodeStub stub = stub("create" + i, "createFileData");
+            contract.createFileData(context(stub), "file" + i, "name", "txt", "10", "hash", "2024-01-01", "key",
+                    "[\"bucket\"]", "1");
+            stub.commit();
+            shardRefs[shard("create" + i)]++;
+        }
+    }
+
+    @Test
+    public void deletesOnDifferentShardsDoNotConflict() {
+        String first = null;
+        String second = null;
+        for (int j = 0; second == null; j++) {
+            String txId = "delete" + j;
+            if (shardRefs[shard(txId)] < 2) {
+                continue;
+            }
+            if (first == null) {
+                first = txId;
+            } else if (shard(txId) != shard(first)) {
+                second = txId;
+            }
+        }
+        InMemoryChaincodeStub a = stub(first, "deleteFileData");
+        InMemoryChaincodeStub b = stub(second, "deleteFileData");
+        contract.deleteFileData(context(a), "file0");
+        contract.deleteFileData(context(b), "file1");
+        a.commit();
+        assertTrue(b.validate());
+    }
+
+    @Test
+    public void releasesContentWithTheLastReference() {
+        for (int i = 0; i < FILES; i++) {
+            InMemoryChaincodeStub stub = stub("delete" + i, "deleteFileData");
+            boolean last = contract.deleteFileData(context(stub), "file" + i);
+            stub.commit();
+            assertEquals(i == FILES - 1, last, "file" + i);
+        }
+    }
+
+    private static int shard(final String txId) {
+        return Math.floorMod(txId.hashCode(), REF_SHARDS);
+    }
+
+    private InMemoryChaincodeStub stub(final String txId, final String function) {
+        return new InMemoryChaincodeStub(ledger, author, txId, function);
+    }
+
+    private fileContext context(final InMemoryChaincodeStub stub) {
+        return (fileContext) contract.createContext(stub);
+    }
+}
@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pages through more index entries than one page may scan, which must take one range
+ * scan from the bookmark per page and return full pages.
+ */
+public final class fileContractPagingTest {
+
+    private static final int RECORDS = 10500;
+    private static final int RECORDS_PER_TX = 1000;
+    private static final int PAGE_SIZE = 1000;
+
+    private static final fileContract contract = new fileContract();
+    private static final InMemoryLedger ledger = new InMemoryLedger();
+    private static final BenchmarkIdentity author = new BenchmarkIdentity("Org1MSP", "author", "2");
+    private static int transactions;
+
+    @BeforeAll
+    public static void setUp() {
+        for (int first = 0; first < RECORDS; first += RECORDS_PER_TX) {
+            InMemoryChaincodeStub stub = stub("createFileData");
+            fileContext ctx = context(stub);
+            for (int i = first; i < Math.min(RECORDS, first + RECORDS_PER_TX); i++) {
+                contract.createFileData(ctx, String.format("file%05d", i), "name", "txt", "10",
+                        "hash" + i, "2024-01-01", "key", "[\"bucket\"]", "1");
+            }
+            stub.commit();
+        }
+    }
+
+    @Test
+    public void pagesThroughOneAccessLevel() {
+        Set<String> keys = new HashSet<String>();
+        String bookmark = "";
+        do {
+            fileDataQueryPage page = contract.queryAllByAccessLevelWithPagination(
+                    context(stub("queryAllByAccessLevelWithPagination")), PAGE_SIZE, bookmark);
+            bookmark = page.getBookmark();
+            assertEquals(bookmark.isEmpty() ? RECORDS % PAGE_SIZE : PAGE_SIZE, page.getRecords().length);
+            for (fileDataQueryResult result: page.getRecords()) {
+                assertTrue(keys.add(result.getKey()), result.getKey());
+            }
+        } while (!bookmark.isEmpty());
+        assertEquals(RECORDS, keys.size());
+    }
+
+    @Test
+    public void pagesThroughOneAccessLevelSummaries() {
+        Set<String> keys = new HashSet<String>();
+        String bookmark = "";
+        do {
+            fileSummaryPage page = contract.queryAllByAccessLevelSummaries(
+                    context(stub("queryAllByAccessLevelSummaries")), PAGE_SIZE, bookmark);
+            bookmark = page.getBookmark();
+            assertEquals(bookmark.isEmpty() ? RECORDS % PAGE_SIZE : PAGE_SIZE, page.getRecords().length);
+            for (fileSummary summary: page.getRecords()) {
+                assertTrue(keys.add(summary.getKey()), summary.getKey());
+            }
+        } while (!bookmark.isEmpty());
+        assertEquals(RECORDS, keys.size());
+    }
+
+    private static InMemoryChaincodeStub stub(final String function) {
+        return new InMemoryChaincodeStub(ledger, author, "tx" + transactions++, function);
+    }
+
+    private static fileContext context(final InMemoryChaincodeStub stub) {
+        return (fileContext) contract.createContext(stub);
+    }
+}
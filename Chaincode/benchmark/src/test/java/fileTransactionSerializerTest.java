@@ -0,0 +1,83 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.hyperledger.fabric.contract.metadata.TypeSchema;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Transaction results are written with the generated codecs and read back by them, and
+ * arguments are converted like the runtime's default serializer converts them.
+ */
+public final class fileTransactionSerializerTest {
+
+    private final fileContract contract = new fileContract();
+    private final InMemoryLedger ledger = new InMemoryLedger();
+    private final BenchmarkIdentity author = new BenchmarkIdentity("Org1MSP", "author", "2");
+    private final fileTransactionSerializer serializer = new fileTransactionSerializer();
+    private int transactions;
+
+    @BeforeEach
+    public void setUp() {
+        InMemoryChaincodeStub stub = stub("createFileData");
+        contract.createFileData(context(stub), "file", "name \"quoted\"", "txt", "10", "hash", "2024-01-01", "key",
+                "[\"bucket\"]", "1");
+        stub.commit();
+    }
+
+    @Test
+    public void writesResultsWithTheirCodecs() {
+        fileData record = contract.readFileData(context(stub("readFileData")), "file");
+        String json = write(record);
+        assertEquals(fileDataJsonCodec.toJson(record), json);
+        assertEquals("name \"quoted\"", fileDataJsonCodec.fromJson(json).getName());
+
+        fileDataQueryPage page = contract.queryBySizeRange(context(stub("queryBySizeRange")), 0, 100, 10, "");
+        json = write(page);
+        assertEquals(fileDataQueryPageJsonCodec.toJson(page), json);
+        assertTrue(json.startsWith("{\"bookmark\":\"\",\"records\":[{"), json);
+
+        assertEquals("[\"a\",\"b\"]", write(new String[] {"a", "b"}));
+        assertEquals("raw", write("raw"));
+        assertEquals("42", write(42));
+        assertEquals("true", write(Boolean.TRUE));
+        assertNull(serializer.toBuffer(null, schema("object", null)));
+    }
+
+    @Test
+    public void readsArgumentsLikeTheDefaultSerializer() {
+        assertEquals("text", read("text", "string", null));
+        assertEquals(Integer.valueOf(7), read("7", "integer", "int32"));
+        assertEquals(Long.valueOf(1700000000000L), read("1700000000000", "integer", "int64"));
+        assertEquals(Boolean.TRUE, read("true", "boolean", null));
+        assertEquals("\u00e9", read("\u00e9", "string", null));
+    }
+
+    private String write(final Object value) {
+        return new String(serializer.toBuffer(value, schema("object", null)), StandardCharsets.UTF_8);
+    }
+
+    private Object read(final String text, final String type, final String format) {
+        return serializer.fromBuffer(text.getBytes(StandardCharsets.UTF_8), schema(type, format));
+    }
+
+    private static TypeSchema schema(final String type, final String format) {
+        TypeSchema schema = new TypeSchema();
+        schema.put("type", type);
+        if (format != null) {
+            schema.put("format", format);
+        }
+        return schema;
+    }
+
+    private InMemoryChaincodeStub stub(final String function) {
+        return new InMemoryChaincodeStub(ledger, author, "tx" + transactions++, function);
+    }
+
+    private fileContext context(final InMemoryChaincodeStub stub) {
+        return (fileContext) contract.createContext(stub);
+    }
+}
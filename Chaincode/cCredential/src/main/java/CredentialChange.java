@@ -0,0 +1,70 @@
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * One credential written by a transaction, as reported in change events: its key,
+ * the operation (create, update or delete) and the SHA-256 of the new record, empty
+ * for a delete. The credential itself is not included.
+ *
+ */
+@DataType()
+public final class CredentialChange {
+    @Property()
+    private final String key;
+
+    @Property()
+    private final String op;
+
+    @Property()
+    private final String hash;
+
+    public CredentialChange(@JsonProperty("key") final String key, @JsonProperty("op") final String op,
+                      @JsonProperty("hash") final String hash) {
+        this.key = key;
+        this.op = op;
+        this.hash = hash;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getOp() {
+        return op;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+
+        CredentialChange other = (CredentialChange) obj;
+
+        return Objects.equals(getKey(), other.getKey()) && Objects.equals(getOp(), other.getOp())
+                && Objects.equals(getHash(), other.getHash());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getKey(), getOp(), getHash());
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " [key=" + key + ", op=" + op
+                + ", hash=" + hash + "]";
+    }
+}
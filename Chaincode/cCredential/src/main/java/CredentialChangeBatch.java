@@ -0,0 +1,70 @@
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * The credential changes of one transaction, emitted as its credentialChanges event
+ * and kept in the change log. seq is the transaction timestamp in milliseconds.
+ *
+ */
+@DataType()
+public final class CredentialChangeBatch {
+    @Property()
+    private final long seq;
+
+    @Property()
+    private final String tx_id;
+
+    @Property()
+    private final CredentialChange[] changes;
+
+    public CredentialChangeBatch(@JsonProperty("seq") final long seq, @JsonProperty("tx_id") final String tx_id,
+                           @JsonProperty("changes") final CredentialChange[] changes) {
+        this.seq = seq;
+        this.tx_id = tx_id;
+        this.changes = changes;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public String getTx_id() {
+        return tx_id;
+    }
+
+    public CredentialChange[] getChanges() {
+        return changes;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+
+        CredentialChangeBatch other = (CredentialChangeBatch) obj;
+
+        return getSeq() == other.getSeq() && Objects.equals(getTx_id(), other.getTx_id())
+                && Arrays.equals(getChanges(), other.getChanges());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getSeq(), getTx_id(), Arrays.hashCode(getChanges()));
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " [seq=" + seq + ", tx_id="
+                + tx_id + ", changes=" + Arrays.toString(changes) + "]";
+    }
+}
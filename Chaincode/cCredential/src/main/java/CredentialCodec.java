@@ -0,0 +1,165 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.hyperledger.fabric.shim.ChaincodeException;
+
+/**
+ * Storage encodings of Credential values in collectionCredentials.
+ *
+ * JSON is the form the contract has always written, and the only one CouchDB
+ * selectors can match. BINARY is a compact form: a magic byte, a version byte, then the
+ * five fields in constructor order without names. Each field is a tag byte followed by
+ * a varint for canonical decimals (access levels) or a varint length and the
+ * UTF-8 bytes for text. The magic byte is never the first byte of UTF-8 JSON, so
+ * decode accepts both forms.
+ *
+ */
+public final class CredentialCodec {
+
+    public static final String JSON = "json";
+    public static final String BINARY = "binary";
+
+    private static final byte MAGIC = (byte) 0xFD;
+    private static final byte VERSION = 1;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_TEXT = 1;
+    private static final int TAG_NUMBER = 2;
+
+    private static final int MAX_NUMBER_DIGITS = 18;
+
+    private CredentialCodec() {
+    }
+
+    public static boolean isSupported(final String encoding) {
+        return JSON.equals(encoding) || BINARY.equals(encoding);
+    }
+
+    public static boolean isBinary(final byte[] value) {
+        return value.length > 1 && value[0] == MAGIC;
+    }
+
+    public static byte[] encode(final Credential cred, final String encoding) {
+        if (BINARY.equals(encoding)) {
+            return encodeBinary(cred);
+        }
+        return CredentialJsonCodec.toJson(cred).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static Credential decode(final byte[] value) {
+        if (isBinary(value)) {
+            return decodeBinary(value);
+        }
+        return CredentialJsonCodec.fromJson(new String(value, StandardCharsets.UTF_8));
+    }
+
+    private static byte[] encodeBinary(final Credential cred) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        out.write(MAGIC);
+        out.write(VERSION);
+        writeField(out, cred.getProvider());
+        writeField(out, cred.getBucket());
+        writeField(out, cred.getAccess_key());
+        writeField(out, cred.getSecret_key());
+        writeField(out, cred.getAccess_level());
+        return out.toByteArray();
+    }
+
+    private static Credential decodeBinary(final byte[] value) {
+        if (value[1] != VERSION) {
+            throw new ChaincodeException(String.format("Unsupported Credential encoding version %d", value[1]));
+        }
+        Reader in = new Reader(value, 2);
+        return new Credential(in.field(), in.field(), in.field(), in.field(), in.field());
+    }
+
+    private static void writeField(final ByteArrayOutputStream out, final String value) {
+        if (value == null) {
+            out.write(TAG_NULL);
+        } else if (isCanonicalNumber(value)) {
+            out.write(TAG_NUMBER);
+            writeVarint(out, Long.parseLong(value));
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.write(TAG_TEXT);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Only decimals that print back identically are stored as numbers, so decoding
+     * always returns the original string.
+     */
+    private static boolean isCanonicalNumber(final String value) {
+        int length = value.length();
+        if (length == 0 || length > MAX_NUMBER_DIGITS || (length > 1 && value.charAt(0) == '0')) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out, final long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static final class Reader {
+        private final byte[] buffer;
+        private int position;
+
+        Reader(final byte[] buffer, final int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        String field() {
+            int tag = next();
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_NUMBER:
+                    return Long.toString(varint());
+                case TAG_TEXT:
+                    int length = (int) varint();
+                    if (length < 0 || length > buffer.length - position) {
+                        throw new ChaincodeException("Truncated Credential value");
+                    }
+                    String text = new String(buffer, position, length, StandardCharsets.UTF_8);
+                    position += length;
+                    return text;
+                default:
+                    throw new ChaincodeException(String.format("Invalid Credential field tag %d", tag));
+            }
+        }
+
+        private long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = next();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new ChaincodeException("Invalid Credential varint");
+        }
+
+        private int next() {
+            if (position >= buffer.length) {
+                throw new ChaincodeException("Truncated Credential value");
+            }
+            return buffer[position++] & 0xFF;
+        }
+    }
+}
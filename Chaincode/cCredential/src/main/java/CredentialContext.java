@@ -0,0 +1,249 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+
+/**
+ * Transaction context of CredentialsCC.
+ *
+ * The caller's id and access level are parsed once per transaction, and the credentials
+ * read or written by the transaction are kept decoded, so repeated accesses to the same
+ * key do not go back to the peer.
+ * Writes are sent to the stub straight away and also recorded here, which gives the
+ * transaction read-your-writes on point reads. Range queries still go to the peer and
+ * do not see the writes of the current transaction.
+ *
+ * Credentials are stored under the key of their access tier, TIER_PREFIX + level + "~"
+ * + key, so that listing the credentials of a level is one range scan over that tier.
+ * A pointer record keyed (tier, key) resolves a key to its tier. Credentials written
+ * before the tiers existed stay under their plain key until they are written again,
+ * and are still found there.
+ *
+ * The keys of the credentials written or deleted are kept in order, with whether the
+ * credential existed before the transaction, for the change event of the transaction.
+ * The change log is kept under TIER_PREFIX too, see changeKey.
+ *
+ */
+public final class CredentialContext extends Context {
+
+    /**
+     * Ledger configuration record holding the storage encoding for new writes, see
+     * CredentialCodec. Kept on the ledger so every endorsing peer writes the same bytes.
+     */
+    private static final String CONFIG = "config";
+    private static final String CONFIG_ENCODING = "encoding";
+
+    /**
+     * First character of every tiered key. Plain keys starting with it are not valid.
+     */
+    public static final String TIER_PREFIX = "~";
+    private static final String TIER = "tier";
+    private static final String CHANGES = TIER_PREFIX + "change~";
+
+    private final Map<String, Credential> credentials = new HashMap<String, Credential>();
+    private final Map<String, String> locations = new HashMap<String, String>();
+    private final Map<String, Boolean> changed = new LinkedHashMap<String, Boolean>();
+
+    private Integer accessLevel;
+    private String clientId;
+    private String storageEncoding;
+
+    public CredentialContext(final ChaincodeStub stub) {
+        super(stub);
+    }
+
+    /**
+     * @return the alevel attribute of the caller
+     */
+    public int getAccessLevel() {
+        if (accessLevel == null) {
+            accessLevel = Integer.valueOf(getClientIdentity().getAttributeValue("alevel"));
+        }
+        return accessLevel;
+    }
+
+    /**
+     * @return the id of the caller
+     */
+    public String getClientId() {
+        if (clientId == null) {
+            clientId = getClientIdentity().getId();
+        }
+        return clientId;
+    }
+
+    /**
+     * @param key the key of the credential
+     * @return the credential, or null if it does not exist
+     */
+    public Credential getCredential(final String key) {
+        if (credentials.containsKey(key)) {
+            return credentials.get(key);
+        }
+        String location = getLocation(key);
+        if (credentials.containsKey(key)) {
+            return credentials.get(key);
+        }
+        byte[] value = location.isEmpty() ? null : getStub().getPrivateData("collectionCredentials", location);
+        Credential cc = value == null || value.length == 0 ? null : CredentialCodec.decode(value);
+        credentials.put(key, cc);
+        return cc;
+    }
+
+    /**
+     * Writes the credential under the tier of its access level, and removes the copy
+     * under its previous tier or plain key.
+     */
+    public void putCredential(final String key, final Credential cc) {
+        ChaincodeStub stub = getStub();
+        String tier = tierOf(cc);
+        String target = tieredKey(tier, key);
+        String location = getLocation(key);
+        recordChange(key, !location.isEmpty());
+        if (!location.equals(target)) {
+            if (!location.isEmpty()) {
+                stub.delPrivateData("collectionCredentials", location);
+            }
+            stub.putPrivateData("collectionCredentials", pointerKey(key), tier);
+            locations.put(key, target);
+        }
+        stub.putPrivateData("collectionCredentials", target, CredentialCodec.encode(cc, getStorageEncoding()));
+        credentials.put(key, cc);
+    }
+
+    public void delCredential(final String key) {
+        ChaincodeStub stub = getStub();
+        String location = getLocation(key);
+        recordChange(key, !location.isEmpty());
+        if (!location.isEmpty()) {
+            stub.delPrivateData("collectionCredentials", location);
+            if (!location.equals(key)) {
+                stub.delPrivateData("collectionCredentials", pointerKey(key));
+            }
+        }
+        locations.put(key, "");
+        credentials.put(key, null);
+    }
+
+    /**
+     * @return the key holding the credential: its tiered key, its plain key if it predates
+     * the tiers, or an empty string if it does not exist
+     */
+    public String getLocation(final String key) {
+        String location = locations.get(key);
+        if (location == null) {
+            ChaincodeStub stub = getStub();
+            String tier = stub.getPrivateDataUTF8("collectionCredentials", pointerKey(key));
+            if (!tier.isEmpty()) {
+                location = tieredKey(tier, key);
+            } else if (key.startsWith(TIER_PREFIX)) {
+                location = "";
+            } else {
+                byte[] value = stub.getPrivateData("collectionCredentials", key);
+                location = value == null || value.length == 0 ? "" : key;
+                if (!location.isEmpty() && !credentials.containsKey(key)) {
+                    credentials.put(key, CredentialCodec.decode(value));
+                }
+            }
+            locations.put(key, location);
+        }
+        return location;
+    }
+
+    /**
+     * Reads a credential whose tier is already known, without resolving its key.
+     * @return the credential, or null if it is not in that tier
+     */
+    public Credential getCredential(final String key, final String tier) {
+        String target = tieredKey(tier, key);
+        String location = locations.get(key);
+        if (location != null && credentials.containsKey(key)) {
+            return location.equals(target) ? credentials.get(key) : null;
+        }
+        byte[] value = getStub().getPrivateData("collectionCredentials", target);
+        if (value == null || value.length == 0) {
+            return null;
+        }
+        Credential cc = CredentialCodec.decode(value);
+        locations.put(key, target);
+        credentials.put(key, cc);
+        return cc;
+    }
+
+    /**
+     * @return the keys of the credentials written or deleted by the transaction, in
+     * order, mapped to whether the credential existed before it
+     */
+    public Map<String, Boolean> getChangedCredentials() {
+        return changed;
+    }
+
+    private void recordChange(final String key, final boolean existed) {
+        if (!changed.containsKey(key)) {
+            changed.put(key, existed);
+        }
+    }
+
+    /**
+     * @return the change log key of a transaction, ordered by timestamp; the log is one
+     * range between changeKey(0, "") and changeEndKey()
+     */
+    public static String changeKey(final long seq, final String txId) {
+        return CHANGES + String.format("%016x", seq) + "~" + txId;
+    }
+
+    public static String changeEndKey() {
+        return TIER_PREFIX + "change\u007f";
+    }
+
+    /**
+     * @return the tier of a credential, its access level in canonical form
+     */
+    public static String tierOf(final Credential cc) {
+        return Integer.toString(Integer.parseInt(cc.getAccess_level().trim()));
+    }
+
+    /**
+     * @return the first key of a tier, every key of the tier starts with it
+     */
+    public static String tierStartKey(final int level) {
+        return TIER_PREFIX + level + "~";
+    }
+
+    /**
+     * @return the key following every key of a tier
+     */
+    public static String tierEndKey(final int level) {
+        return TIER_PREFIX + level + "\u007f";
+    }
+
+    private static String tieredKey(final String tier, final String key) {
+        return TIER_PREFIX + tier + "~" + key;
+    }
+
+    private String pointerKey(final String key) {
+        return getStub().createCompositeKey(TIER, key).toString();
+    }
+
+    /**
+     * @return the encoding of credentials written by this transaction
+     */
+    public String getStorageEncoding() {
+        if (storageEncoding == null) {
+            String encoding = getStub().getPrivateDataUTF8("collectionCredentials", configKey());
+            storageEncoding = encoding.isEmpty() ? CredentialCodec.JSON : encoding;
+        }
+        return storageEncoding;
+    }
+
+    public void setStorageEncoding(final String encoding) {
+        getStub().putPrivateData("collectionCredentials", configKey(), encoding);
+        storageEncoding = encoding;
+    }
+
+    private String configKey() {
+        return getStub().createCompositeKey(CONFIG, CONFIG_ENCODING).toString();
+    }
+}
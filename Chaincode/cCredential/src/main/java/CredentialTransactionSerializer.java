@@ -0,0 +1,22 @@
+import org.hyperledger.fabric.contract.annotation.Serializer;
+
+/**
+ * Writes the results of CredentialsCC with their generated codecs.
+ */
+@Serializer(target = Serializer.TARGET.TRANSACTION)
+public final class CredentialTransactionSerializer extends CodecTransactionSerializer {
+
+    @Override
+    protected boolean write(final StringBuilder out, final Object value) {
+        if (value instanceof Credential) {
+            CredentialJsonCodec.write(out, (Credential) value);
+        } else if (value instanceof CredentialQueryResult) {
+            CredentialQueryResultJsonCodec.write(out, (CredentialQueryResult) value);
+        } else if (value instanceof CredentialQueryResult[]) {
+            CredentialQueryResultJsonCodec.writeArray(out, (CredentialQueryResult[]) value);
+        } else {
+            return false;
+        }
+        return true;
+    }
+}
@@ -1,8 +1,12 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 import org.hyperledger.fabric.contract.Context;
-import org.hyperledger.fabric.contract.ClientIdentity;
 import org.hyperledger.fabric.contract.ContractInterface;
 import org.hyperledger.fabric.contract.annotation.Contact;
 import org.hyperledger.fabric.contract.annotation.Contract;
@@ -12,13 +16,13 @@ import org.hyperledger.fabric.contract.annotation.License;
 import org.hyperledger.fabric.contract.annotation.Transaction;
 import org.hyperledger.fabric.shim.ChaincodeException;
 import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
 import org.hyperledger.fabric.shim.ledger.KeyValue;
 import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
 
-import com.owlike.genson.Genson;
-
 @Contract(
         name = "CredentialCC",
+        transactionSerializer = "CredentialTransactionSerializer",
         info = @Info(
                 title = "Cloud Credenial Chaincode",
                 description = "TM470 Project ",
@@ -33,12 +37,97 @@ import com.owlike.genson.Genson;
 @Default
 public final class CredentialsCC implements ContractInterface {
 
-    private final Genson genson = new Genson();
+    /**
+     * Upper bound on the size of a streamed query response, kept well below the gRPC
+     * message limit of the peer.
+     */
+    private static final int MAX_RESPONSE_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Index of credentials by provider and bucket, keyed (provider~bucket~key, provider,
+     * bucket, key). The value is the tier of the credential, so a lookup can apply the
+     * access rules and read the credential from its tier without resolving its key.
+     */
+    private static final String PROVIDER_INDEX = "provider~bucket~key";
+
+    /**
+     * Index of credentials by bucket alone, keyed (bucket~provider~key, bucket, provider,
+     * key) with the tier as value like PROVIDER_INDEX. fileData only lists bucket names,
+     * so this is the index readCredentialsForBuckets resolves them with.
+     */
+    private static final String BUCKET_INDEX = "bucket~provider~key";
+
+    /**
+     * Lowest access level; queryAllCredentials scans the tiers from here up to the level
+     * of the caller.
+     */
+    private static final int MIN_ACCESS_LEVEL = 1;
+
+    /**
+     * Upper bound on keys in one migration transaction.
+     */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    /**
+     * Every transaction that writes credentials emits their keys, operations and hashes
+     * as one credentialChanges event, and keeps the same CredentialChangeBatch in the
+     * change log under CredentialContext.changeKey, one key per transaction. Timestamps
+     * are set by the submitting client, so the log is ordered by timestamp rather than
+     * by commit; a reader resuming from a timestamp should start a few minutes back and
+     * skip the transactions it has already seen.
+     */
+    private static final String CHANGE_EVENT = "credentialChanges";
 
     private enum CredentialErrors {
         NOT_FOUND,
         ALREADY_EXISTS,
-        ACCESS_DENIED
+        ACCESS_DENIED,
+        INVALID_ARGUMENT
+    }
+
+    @Override
+    public Context createContext(final ChaincodeStub stub) {
+        ChaincodeLog.bind(stub);
+        return TransactionMetrics.start(stub, CredentialContext::new);
+    }
+
+    /**
+     * Emits the changes of the transaction and records its metrics.
+     */
+    @Override
+    public void afterTransaction(final Context context, final Object result) {
+        try {
+            emitChanges((CredentialContext) context);
+        } finally {
+            TransactionMetrics.finish(context, result);
+            ChaincodeLog.unbind();
+        }
+    }
+
+    /**
+     * Emits the credential changes of the transaction and adds them to the change log.
+     * Secrets are never emitted, as events are visible to every member of the channel.
+     */
+    private void emitChanges(final CredentialContext ctx) {
+        List<CredentialChange> changes = new ArrayList<CredentialChange>();
+        for (Map.Entry<String, Boolean> change: ctx.getChangedCredentials().entrySet()) {
+            Credential cc = ctx.getCredential(change.getKey());
+            if (cc != null) {
+                changes.add(new CredentialChange(change.getKey(), change.getValue() ? "update" : "create", credentialHash(cc)));
+            } else if (change.getValue()) {
+                changes.add(new CredentialChange(change.getKey(), "delete", ""));
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        ChaincodeStub stub = ctx.getStub();
+        long seq = stub.getTxTimestamp().toEpochMilli();
+        CredentialChangeBatch batch = new CredentialChangeBatch(seq, stub.getTxId(),
+                changes.toArray(new CredentialChange[changes.size()]));
+        byte[] payload = CredentialChangeBatchJsonCodec.toJson(batch).getBytes(StandardCharsets.UTF_8);
+        stub.putPrivateData("collectionCredentials", CredentialContext.changeKey(seq, stub.getTxId()), payload);
+        stub.setEvent(CHANGE_EVENT, payload);
     }
 
     /**
@@ -47,9 +136,7 @@ public final class CredentialsCC implements ContractInterface {
      * @param ctx the transaction context
      */
     @Transaction()
-    public void initLedger(final Context ctx) {
-        ChaincodeStub stub = ctx.getStub();
-
+    public void initLedger(final CredentialContext ctx) {
         String[] credData = {
                 "{ \"provider\": \"AWS\", \"bucket\": \"bucket\", \"access_key\": \"acKey\", \"secret_key\": \"secKey\", \"access_level\": \"1\" }",
                 "{ \"provider\": \"AWS\", \"bucket\": \"bucket\", \"access_key\": \"acKey\", \"secret_key\": \"secKey\", \"access_level\": \"2\" }",
@@ -60,9 +147,9 @@ public final class CredentialsCC implements ContractInterface {
         for (int i = 0; i < credData.length; i++) {
             String key = String.format("CC%d", i);
 
-            Credential cred = genson.deserialize(credData[i], Credential.class);
-            String ccState = genson.serialize(cred);
-            stub.putPrivateData("collectionCredentials",key, ccState);
+            Credential cred = CredentialJsonCodec.fromJson(credData[i]);
+            ctx.putCredential(key, cred);
+            updateIndex(ctx, key, null, cred);
         }
     }
 
@@ -80,26 +167,29 @@ public final class CredentialsCC implements ContractInterface {
      * @return the created credential
      */
     @Transaction()
-    public Credential createCredential(final Context ctx, final String key, final String provider, final String bucket, final String access_key,
+    public Credential createCredential(final CredentialContext ctx, final String key, final String provider, final String bucket, final String access_key,
                            final String secret_key, final String access_level) {
-        ChaincodeStub stub = ctx.getStub();
-        ClientIdentity cid = ctx.getClientIdentity();
-        String access = cid.getAttributeValue("alevel");
-        String credState = stub.getPrivateDataUTF8("collectionCredentials", key);
-        if (!credState.isEmpty()) {
-            String errorMessage = String.format("Credential %s already exists", key);
-            System.out.println(errorMessage);
+        int access = ctx.getAccessLevel();
+        if (key.startsWith(CredentialContext.TIER_PREFIX)) {
+            String errorMessage = "Invalid key " + key + ", keys cannot start with " + CredentialContext.TIER_PREFIX;
+            ChaincodeLog.warn(CredentialErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, CredentialErrors.INVALID_ARGUMENT.toString());
+        }
+        checkAccessLevel(access_level);
+        if (ctx.getCredential(key) != null) {
+            String errorMessage = "Credential " + key + " already exists";
+            ChaincodeLog.warn(CredentialErrors.ALREADY_EXISTS.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, CredentialErrors.ALREADY_EXISTS.toString());
         }
         Credential cred = null;
-        if (access.equals("3")){
+        if (access == 3){
             cred = new Credential(provider, bucket, access_key, secret_key, access_level);
-            credState = genson.serialize(cred);
-            stub.putPrivateData("collectionCredentials",key, credState);
+            ctx.putCredential(key, cred);
+            updateIndex(ctx, key, null, cred);
         }
         else {
-            String errorMessage = String.format("Access denied", key);
-            System.out.println(errorMessage);
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(CredentialErrors.ACCESS_DENIED.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, CredentialErrors.ACCESS_DENIED.toString());
         }
         return cred;
@@ -112,30 +202,21 @@ public final class CredentialsCC implements ContractInterface {
      * @return the credential
      */
     @Transaction()
-    public Credential readCredential(final Context ctx, final String key) {
-        ChaincodeStub stub = ctx.getStub();
-        String ccState = stub.getPrivateDataUTF8("collectionCredentials", key);
-        ClientIdentity cid = ctx.getClientIdentity();
-        Integer access = Integer.valueOf(cid.getAttributeValue("alevel"));
-        if (ccState.isEmpty()) {
-            String errorMessage = String.format("Credential %s does not exist", key);
-            System.out.println(errorMessage);
+    public Credential readCredential(final CredentialContext ctx, final String key) {
+        Credential cc = ctx.getCredential(key);
+        int access = ctx.getAccessLevel();
+        if (cc == null) {
+            String errorMessage = "Credential " + key + " does not exist";
+            ChaincodeLog.warn(CredentialErrors.NOT_FOUND.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, CredentialErrors.NOT_FOUND.toString());
         }
-        Credential cc = genson.deserialize(ccState, Credential.class);
 
-        if (cc.getAccess_level().equals("1")){
-            return cc;
-        }
-        if (cc.getAccess_level().equals("2") && access >= 2){
-            return cc;
-        }
-        if (access >= 3){
+        if (canRead(cc.getAccess_level(), access)){
             return cc;
         }
         else {
-            String errorMessage = String.format("Access denied", key);
-            System.out.println(errorMessage);
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(CredentialErrors.ACCESS_DENIED.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, CredentialErrors.ACCESS_DENIED.toString());
         }
     }
@@ -152,27 +233,26 @@ public final class CredentialsCC implements ContractInterface {
      * @return the updated credential
      */
     @Transaction()
-    public Credential updateCredential(final Context ctx, final String key, final String provider, final String bucket, final String access_key,
+    public Credential updateCredential(final CredentialContext ctx, final String key, final String provider, final String bucket, final String access_key,
                            final String secret_key, final String access_level) {
-        ChaincodeStub stub = ctx.getStub();
-        String credState = stub.getPrivateDataUTF8("collectionCredentials", key);
-        ClientIdentity cid = ctx.getClientIdentity();
-        String access = cid.getAttributeValue("alevel");
-        if (credState.isEmpty()) {
-            String errorMessage = String.format("Credential %s does not exist", key);
-            System.out.println(errorMessage);
+        int access = ctx.getAccessLevel();
+        checkAccessLevel(access_level);
+        Credential previous = ctx.getCredential(key);
+        if (previous == null) {
+            String errorMessage = "Credential " + key + " does not exist";
+            ChaincodeLog.warn(CredentialErrors.NOT_FOUND.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, CredentialErrors.NOT_FOUND.toString());
         }
         Credential cred = null;
 
-        if (access.equals("3")){
+        if (access == 3){
             cred = new Credential(provider, bucket, access_key, secret_key, access_level);
-            credState = genson.serialize(cred);
-            stub.putPrivateData("collectionCredentials",key, credState);
+            ctx.putCredential(key, cred);
+            updateIndex(ctx, key, previous, cred);
         }
         else {
-            String errorMessage = String.format("Access denied", key);
-            System.out.println(errorMessage);
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(CredentialErrors.ACCESS_DENIED.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, CredentialErrors.ACCESS_DENIED.toString());
         }
         return cred;
@@ -184,56 +264,435 @@ public final class CredentialsCC implements ContractInterface {
      * @param key the key for the new credential
      */
     @Transaction()
-    public void deleteCredential(final Context ctx, final String key) {
-        ChaincodeStub stub = ctx.getStub();
-        String ccState = stub.getPrivateDataUTF8("collectionCredentials", key);
-        ClientIdentity cid = ctx.getClientIdentity();
-        Integer access = Integer.valueOf(cid.getAttributeValue("alevel"));
-        if (ccState.isEmpty()) {
-            String errorMessage = String.format("Credential %s does not exist", key);
-            System.out.println(errorMessage);
+    public void deleteCredential(final CredentialContext ctx, final String key) {
+        Credential cc = ctx.getCredential(key);
+        int access = ctx.getAccessLevel();
+        if (cc == null) {
+            String errorMessage = "Credential " + key + " does not exist";
+            ChaincodeLog.warn(CredentialErrors.NOT_FOUND.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, CredentialErrors.NOT_FOUND.toString());
         }
-        Credential cc = genson.deserialize(ccState, Credential.class);
 
         if (access >= 3){
-            stub.delPrivateData("collectionCredentials", key);
+            ctx.delCredential(key);
+            updateIndex(ctx, key, cc, null);
         }
         else {
-            String errorMessage = String.format("Access denied", key);
-            System.out.println(errorMessage);
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(CredentialErrors.ACCESS_DENIED.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, CredentialErrors.ACCESS_DENIED.toString());
         }
     }
 
 
     /**
-     * Query all  credential on the ledger under users access level.
+     * Query all  credential on the ledger under users access level. Only the tiers the
+     * caller can read are scanned, then the plain keys of credentials not yet moved to a
+     * tier, which are filtered.
      * @param ctx the transaction context
      * @return the CredentialQueryResult
      */
     @Transaction()
-    public CredentialQueryResult[] queryAllCredentials(final Context ctx) {
+    public CredentialQueryResult[] queryAllCredentials(final CredentialContext ctx) {
+        List<CredentialQueryResult> queryResults = new ArrayList<CredentialQueryResult>();
+        scanCredentials(ctx, queryResults::add);
+        CredentialQueryResult[] response = queryResults.toArray(new CredentialQueryResult[queryResults.size()]);
+        return response;
+    }
+
+    /**
+     * queryAllCredentials with records decoded and written to the response one at a
+     * time; the query stops once the response reaches MAX_RESPONSE_BYTES.
+     * @param ctx the transaction context
+     * @return {"Records": [{"key", "record"}...], "Truncated": true if the cap was reached}
+     */
+    @Transaction()
+    public String queryAllCredentialsStream(final CredentialContext ctx) {
+        JsonRecordStream response = new JsonRecordStream(MAX_RESPONSE_BYTES);
+        scanCredentials(ctx, result -> {
+            CredentialQueryResultJsonCodec.write(response.next(), result);
+            return response.commit();
+        });
+        return response.finish();
+    }
+
+    /**
+     * Passes the credentials the caller can read to sink until it returns false.
+     */
+    private static void scanCredentials(final CredentialContext ctx, final Predicate<CredentialQueryResult> sink) {
         ChaincodeStub stub = ctx.getStub();
-        ClientIdentity cid = ctx.getClientIdentity();
-        Integer access = Integer.valueOf(cid.getAttributeValue("alevel"));
+        int access = ctx.getAccessLevel();
+        for (int level = MIN_ACCESS_LEVEL; level <= access; level++) {
+            if (!scanRange(stub, sink, CredentialContext.tierStartKey(level), CredentialContext.tierEndKey(level),
+                    Integer.MAX_VALUE)) {
+                return;
+            }
+        }
+        // plain keys sort before and after the tiers, never inside them
+        if (scanRange(stub, sink, "", CredentialContext.TIER_PREFIX, access)) {
+            scanRange(stub, sink, "\u007f", "", access);
+        }
+    }
 
-        final String startKey = "CC00";
-        final String endKey = "CC99";
+    /**
+     * Query the credentials of a provider that the caller can read, ordered by bucket.
+     * Only the provider~bucket~key index of the provider is scanned, and each credential
+     * is read from its tier.
+     * @param ctx the transaction context
+     * @param provider the cloud provider
+     * @return {"Records": [{"key", "record"}...], "Truncated": true if the cap was reached}
+     */
+    @Transaction()
+    public String queryCredentialsByProvider(final CredentialContext ctx, final String provider) {
+        ChaincodeStub stub = ctx.getStub();
+        int access = ctx.getAccessLevel();
+        JsonRecordStream response = new JsonRecordStream(MAX_RESPONSE_BYTES);
+        CompositeKey partialKey = stub.createCompositeKey(PROVIDER_INDEX, provider);
+        QueryResultsIterator<KeyValue> results = stub.getPrivateDataByPartialCompositeKey("collectionCredentials", partialKey);
+        try {
+            for (KeyValue result: results) {
+                String tier = result.getStringValue();
+                if (!canRead(tier, access)) {
+                    continue;
+                }
+                String key = stub.splitCompositeKey(result.getKey()).getAttributes().get(2);
+                Credential cc = ctx.getCredential(key, tier);
+                if (cc != null) {
+                    CredentialQueryResultJsonCodec.write(response.next(), new CredentialQueryResult(key, cc));
+                    if (!response.commit()) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            closeIterator(results);
+        }
+        return response.finish();
+    }
 
-        List<CredentialQueryResult> queryResults = new ArrayList<CredentialQueryResult>();
-        QueryResultsIterator<KeyValue> results = stub.getPrivateDataByRange("collectionCredentials",startKey, endKey);
+    /**
+     * Resolves the credential for a bucket with one index scan and one read. When several
+     * credentials cover the bucket, the first one the caller can read in key order is
+     * returned.
+     * @param ctx the transaction context
+     * @param provider the cloud provider
+     * @param bucket the bucket
+     * @return the credential with its key
+     */
+    @Transaction()
+    public CredentialQueryResult readCredentialForBucket(final CredentialContext ctx, final String provider,
+                                                         final String bucket) {
+        ChaincodeStub stub = ctx.getStub();
+        int access = ctx.getAccessLevel();
+        boolean found = false;
+        CompositeKey partialKey = stub.createCompositeKey(PROVIDER_INDEX, provider, bucket);
+        QueryResultsIterator<KeyValue> results = stub.getPrivateDataByPartialCompositeKey("collectionCredentials", partialKey);
+        try {
+            for (KeyValue result: results) {
+                found = true;
+                String tier = result.getStringValue();
+                if (canRead(tier, access)) {
+                    String key = stub.splitCompositeKey(result.getKey()).getAttributes().get(2);
+                    Credential cc = ctx.getCredential(key, tier);
+                    if (cc != null) {
+                        return new CredentialQueryResult(key, cc);
+                    }
+                }
+            }
+        } finally {
+            closeIterator(results);
+        }
+        if (!found) {
+            String errorMessage = "No credential for bucket " + bucket + " of " + provider;
+            ChaincodeLog.warn(CredentialErrors.NOT_FOUND.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, CredentialErrors.NOT_FOUND.toString());
+        }
+        String errorMessage = "Access denied";
+        ChaincodeLog.warn(CredentialErrors.ACCESS_DENIED.toString(), errorMessage);
+        throw new ChaincodeException(errorMessage, CredentialErrors.ACCESS_DENIED.toString());
+    }
 
-        for (KeyValue result: results) {
-            Credential cc = genson.deserialize(result.getStringValue(), Credential.class);
-            if (Integer.valueOf(cc.getAccess_level()) <= access){
-                queryResults.add(new CredentialQueryResult(result.getKey(),cc));
+    /**
+     * Resolves the credentials of several buckets in one call, for clients and for
+     * fileContract, which calls it with the buckets of a file. Each bucket costs one scan
+     * of the bucket~provider~key index and one read; when several credentials cover a
+     * bucket, the first one the caller can read in provider and key order is returned.
+     * @param ctx the transaction context
+     * @param buckets JSON array of bucket names
+     * @return JSON array with one BucketCredential per bucket, in the order given
+     */
+    @Transaction()
+    public String readCredentialsForBuckets(final CredentialContext ctx, final String buckets) {
+        String[] names = parseKeys(buckets);
+        BucketCredential[] resolved = new BucketCredential[names.length];
+        for (int i = 0; i < names.length; i++) {
+            resolved[i] = resolveBucket(ctx, names[i]);
+        }
+        StringBuilder response = new StringBuilder();
+        BucketCredentialJsonCodec.writeArray(response, resolved);
+        return response.toString();
+    }
+
+    /**
+     * Moves the given credentials from their plain key to the key of their access tier,
+     * and writes their index entries. Keys of credentials created before the tiers or the
+     * indexes can be listed with queryAllCredentials.
+     * Peers refuse writes after a private data range query, so the keys are passed in
+     * instead of scanned.
+     * @param ctx the transaction context
+     * @param keys JSON array of credential keys
+     * @return number of credentials migrated, keys that do not exist are skipped
+     */
+    @Transaction()
+    public Integer migrateKeyLayout(final CredentialContext ctx, final String keys) {
+        if (ctx.getAccessLevel() != 3) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(CredentialErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, CredentialErrors.ACCESS_DENIED.toString());
+        }
+        int count = 0;
+        for (String key: parseKeys(keys)) {
+            Credential cc = ctx.getCredential(key);
+            if (cc == null) {
+                continue;
+            }
+            if (ctx.getLocation(key).equals(key)) {
+                ctx.putCredential(key, cc);
             }
+            updateIndex(ctx, key, null, cc);
+            count++;
         }
-        CredentialQueryResult[] response = queryResults.toArray(new CredentialQueryResult[queryResults.size()]);
-        return response;
+        return count;
     }
 
-}
+    /**
+     * Selects the encoding of credentials written from now on. Existing values keep their
+     * encoding until migrateEncoding rewrites them; both are always readable.
+     * @param ctx the transaction context
+     * @param encoding json or binary
+     * @return the selected encoding
+     */
+    @Transaction()
+    public String setStorageEncoding(final CredentialContext ctx, final String encoding) {
+        if (ctx.getAccessLevel() != 3) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(CredentialErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, CredentialErrors.ACCESS_DENIED.toString());
+        }
+        if (!CredentialCodec.isSupported(encoding)) {
+            String errorMessage = "Unsupported encoding " + encoding;
+            ChaincodeLog.warn(CredentialErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, CredentialErrors.INVALID_ARGUMENT.toString());
+        }
+        ctx.setStorageEncoding(encoding);
+        return encoding;
+    }
+
+    /**
+     * Rewrites the given credentials whose stored encoding differs from the selected one,
+     * which also moves credentials still under a plain key to their tier.
+     * Peers refuse writes after a private data range query, so the keys are passed in
+     * instead of scanned.
+     * @param ctx the transaction context
+     * @param keys JSON array of credential keys
+     * @return number of credentials rewritten
+     */
+    @Transaction()
+    public Integer migrateEncoding(final CredentialContext ctx, final String keys) {
+        ChaincodeStub stub = ctx.getStub();
+        if (ctx.getAccessLevel() != 3) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(CredentialErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, CredentialErrors.ACCESS_DENIED.toString());
+        }
+        boolean binary = CredentialCodec.BINARY.equals(ctx.getStorageEncoding());
+        int count = 0;
+        for (String key: parseKeys(keys)) {
+            String location = ctx.getLocation(key);
+            byte[] value = location.isEmpty() ? null : stub.getPrivateData("collectionCredentials", location);
+            if (value != null && value.length > 0 && CredentialCodec.isBinary(value) != binary) {
+                ctx.putCredential(key, CredentialCodec.decode(value));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Streams the change log from a transaction timestamp, for indexers that missed
+     * credentialChanges events. Level 3 only. The response stops once it reaches
+     * MAX_RESPONSE_BYTES; the next call starts from the seq of the last batch returned.
+     * @param ctx the transaction context
+     * @param from earliest transaction timestamp in milliseconds since the epoch (inclusive)
+     * @return {"Records": [CredentialChangeBatch...], "Truncated": true if the cap was reached}
+     */
+    @Transaction()
+    public String queryChanges(final CredentialContext ctx, final long from) {
+        ChaincodeStub stub = ctx.getStub();
+        if (ctx.getAccessLevel() < 3) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(CredentialErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, CredentialErrors.ACCESS_DENIED.toString());
+        }
+        JsonRecordStream response = new JsonRecordStream(MAX_RESPONSE_BYTES);
+        QueryResultsIterator<KeyValue> results = stub.getPrivateDataByRange("collectionCredentials",
+                CredentialContext.changeKey(Math.max(from, 0), ""), CredentialContext.changeEndKey());
+        try {
+            for (KeyValue result: results) {
+                response.next().append(result.getStringValue());
+                if (!response.commit()) {
+                    break;
+                }
+            }
+        } finally {
+            closeIterator(results);
+        }
+        return response.finish();
+    }
+
+    /**
+     * Passes the credentials of a key range to sink, dropping those above maxLevel.
+     * @return false if sink returned false
+     */
+    private static boolean scanRange(final ChaincodeStub stub, final Predicate<CredentialQueryResult> sink,
+                                     final String startKey, final String endKey, final int maxLevel) {
+        boolean tier = startKey.startsWith(CredentialContext.TIER_PREFIX);
+        QueryResultsIterator<KeyValue> results = stub.getPrivateDataByRange("collectionCredentials", startKey, endKey);
+        try {
+            for (KeyValue result: results) {
+                Credential cc = CredentialCodec.decode(result.getValue());
+                if (Integer.valueOf(cc.getAccess_level().trim()) <= maxLevel){
+                    String key = tier ? result.getKey().substring(startKey.length()) : result.getKey();
+                    if (!sink.test(new CredentialQueryResult(key, cc))) {
+                        return false;
+                    }
+                }
+            }
+        } finally {
+            closeIterator(results);
+        }
+        return true;
+    }
+
+    /**
+     * The access rules of readCredential: level 1 is public, level 2 needs level 2, and
+     * level 3 callers read everything.
+     */
+    private static boolean canRead(final String access_level, final int access) {
+        return access_level.equals("1") || (access_level.equals("2") && access >= 2) || access >= 3;
+    }
+
+    /**
+     * @return the first credential of the bucket the caller can read, or an entry with
+     * the NOT_FOUND or ACCESS_DENIED error
+     */
+    private static BucketCredential resolveBucket(final CredentialContext ctx, final String bucket) {
+        ChaincodeStub stub = ctx.getStub();
+        int access = ctx.getAccessLevel();
+        boolean found = false;
+        CompositeKey partialKey = stub.createCompositeKey(BUCKET_INDEX, bucket);
+        QueryResultsIterator<KeyValue> results = stub.getPrivateDataByPartialCompositeKey("collectionCredentials", partialKey);
+        try {
+            for (KeyValue result: results) {
+                found = true;
+                String tier = result.getStringValue();
+                if (canRead(tier, access)) {
+                    String key = stub.splitCompositeKey(result.getKey()).getAttributes().get(2);
+                    Credential cc = ctx.getCredential(key, tier);
+                    if (cc != null) {
+                        return new BucketCredential(bucket, key, cc.getProvider(), cc.getAccess_key(),
+                                cc.getSecret_key(), cc.getAccess_level(), null);
+                    }
+                }
+            }
+        } finally {
+            closeIterator(results);
+        }
+        String error = found ? CredentialErrors.ACCESS_DENIED.toString() : CredentialErrors.NOT_FOUND.toString();
+        return new BucketCredential(bucket, null, null, null, null, null, error);
+    }
 
+    /**
+     * Moves the provider~bucket~key and bucket~provider~key entries of a credential, null
+     * for a credential that does not exist.
+     */
+    private static void updateIndex(final CredentialContext ctx, final String key, final Credential previous,
+                                    final Credential cc) {
+        ChaincodeStub stub = ctx.getStub();
+        for (String index: new String[] {PROVIDER_INDEX, BUCKET_INDEX}) {
+            String entry = cc == null ? null : indexKey(stub, index, key, cc);
+            if (previous != null) {
+                String previousEntry = indexKey(stub, index, key, previous);
+                if (!previousEntry.equals(entry)) {
+                    stub.delPrivateData("collectionCredentials", previousEntry);
+                }
+            }
+            if (entry != null) {
+                stub.putPrivateData("collectionCredentials", entry,
+                        CredentialContext.tierOf(cc).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
 
+    private static String indexKey(final ChaincodeStub stub, final String index, final String key, final Credential cc) {
+        if (BUCKET_INDEX.equals(index)) {
+            return stub.createCompositeKey(BUCKET_INDEX, cc.getBucket(), cc.getProvider(), key).toString();
+        }
+        return stub.createCompositeKey(PROVIDER_INDEX, cc.getProvider(), cc.getBucket(), key).toString();
+    }
+
+    private static String[] parseKeys(final String keys) {
+        String[] items;
+        try {
+            items = JsonCodecReader.stringArrayFromJson(keys);
+        } catch (RuntimeException e) {
+            items = null;
+        }
+        if (items == null || items.length > MAX_BATCH_SIZE) {
+            String errorMessage = "Invalid keys, expected a JSON array of 0 to " + MAX_BATCH_SIZE + " keys";
+            ChaincodeLog.warn(CredentialErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, CredentialErrors.INVALID_ARGUMENT.toString());
+        }
+        return items;
+    }
+
+    private static void checkAccessLevel(final String access_level) {
+        try {
+            if (Integer.parseInt(access_level.trim()) >= MIN_ACCESS_LEVEL) {
+                return;
+            }
+        } catch (RuntimeException e) {
+            // reported below
+        }
+        String errorMessage = "Invalid access level " + access_level;
+        ChaincodeLog.warn(CredentialErrors.INVALID_ARGUMENT.toString(), errorMessage);
+        throw new ChaincodeException(errorMessage, CredentialErrors.INVALID_ARGUMENT.toString());
+    }
+
+    /**
+     * @return the SHA-256 in hex of the JSON form of a credential, the same for either
+     * encoding
+     */
+    private static String credentialHash(final Credential cc) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(CredentialJsonCodec.toJson(cc).getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(2 * digest.length);
+            for (byte b: digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new ChaincodeException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void closeIterator(final QueryResultsIterator<KeyValue> results) {
+        try {
+            results.close();
+        } catch (Exception e) {
+            throw new ChaincodeException("Failed to close query iterator", e);
+        }
+    }
+
+}
@@ -0,0 +1,368 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a reflection free JSON codec, named {@code <Type>JsonCodec}, for every class
+ * annotated with the Fabric {@code @DataType}.
+ *
+ * The codecs follow the rules Genson applies to these classes, so the JSON does not
+ * change: properties are written from the public getters in alphabetical order, nulls
+ * included, and read back through the constructor whose parameters carry
+ * {@code @JsonProperty}, ignoring unknown fields. Supported property types are String,
+ * int, long, boolean (primitive or boxed), other {@code @DataType} classes and arrays of
+ * Strings or {@code @DataType} classes.
+ *
+ */
+@SupportedAnnotationTypes(DataTypeCodecProcessor.DATA_TYPE)
+public final class DataTypeCodecProcessor extends AbstractProcessor {
+
+    static final String DATA_TYPE = "org.hyperledger.fabric.contract.annotation.DataType";
+    private static final String JSON_PROPERTY = "com.owlike.genson.annotation.JsonProperty";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    continue;
+                }
+                try {
+                    generate((TypeElement) element);
+                } catch (IllegalStateException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), element);
+                } catch (IOException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "Cannot write codec: " + e.getMessage(), element);
+                }
+            }
+        }
+        return false;
+    }
+
+    private void generate(final TypeElement type) throws IOException {
+        String typeName = type.getSimpleName().toString();
+        String codecName = typeName + "JsonCodec";
+        List<Property> getters = getters(type);
+        List<Property> parameters = constructorParameters(type);
+
+        StringBuilder src = new StringBuilder();
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        if (!packageName.isEmpty()) {
+            src.append("package ").append(packageName).append(";\n\n");
+        }
+        src.append("/**\n * JSON codec for ").append(typeName).append(", generated by DataTypeCodecProcessor.\n */\n");
+        src.append("public final class ").append(codecName).append(" {\n\n");
+        src.append("    private ").append(codecName).append("() {\n    }\n\n");
+
+        src.append("    public static String toJson(final ").append(typeName).append(" value) {\n");
+        src.append("        StringBuilder out = new StringBuilder(256);\n");
+        src.append("        write(out, value);\n");
+        src.append("        return out.toString();\n    }\n\n");
+
+        src.append("    public static ").append(typeName).append(" fromJson(final String json) {\n");
+        src.append("        JsonCodecReader in = new JsonCodecReader(json);\n");
+        src.append("        ").append(typeName).append(" value = read(in);\n");
+        src.append("        in.end();\n");
+        src.append("        return value;\n    }\n\n");
+
+        src.append("    public static ").append(typeName).append("[] arrayFromJson(final String json) {\n");
+        src.append("        JsonCodecReader in = new JsonCodecReader(json);\n");
+        src.append("        ").append(typeName).append("[] value = readArray(in);\n");
+        src.append("        in.end();\n");
+        src.append("        return value;\n    }\n\n");
+
+        src.append("    public static void write(final StringBuilder out, final ").append(typeName).append(" value) {\n");
+        src.append("        if (value == null) {\n            out.append(\"null\");\n            return;\n        }\n");
+        for (int i = 0; i < getters.size(); i++) {
+            Property p = getters.get(i);
+            src.append("        out.append(\"").append(i == 0 ? "{" : ",").append("\\\"").append(p.name).append("\\\":\");\n");
+            src.append("        ").append(writeStatement(p.type, "value." + p.accessor + "()")).append("\n");
+        }
+        src.append(getters.isEmpty() ? "        out.append(\"{}\");\n" : "        out.append('}');\n");
+        src.append("    }\n\n");
+
+        src.append("    public static void writeArray(final StringBuilder out, final ").append(typeName).append("[] values) {\n");
+        src.append("        if (values == null) {\n            out.append(\"null\");\n            return;\n        }\n");
+        src.append("        out.append('[');\n");
+        src.append("        for (int i = 0; i < values.length; i++) {\n");
+        src.append("            if (i > 0) {\n                out.append(',');\n            }\n");
+        src.append("            write(out, values[i]);\n        }\n");
+        src.append("        out.append(']');\n    }\n\n");
+
+        src.append("    public static ").append(typeName).append(" read(final JsonCodecReader in) {\n");
+        src.append("        if (in.nextIsNull()) {\n            return null;\n        }\n");
+        for (int i = 0; i < parameters.size(); i++) {
+            Property p = parameters.get(i);
+            src.append("        ").append(javaType(p.type)).append(" p").append(i).append(" = ")
+                    .append(defaultValue(p.type)).append(";\n");
+        }
+        src.append("        in.beginObject();\n");
+        src.append("        while (in.hasNext()) {\n");
+        src.append("            switch (in.nextName()) {\n");
+        for (int i = 0; i < parameters.size(); i++) {
+            Property p = parameters.get(i);
+            src.append("                case \"").append(p.name).append("\":\n");
+            src.append("                    p").append(i).append(" = ").append(readExpression(p.type)).append(";\n");
+            src.append("                    break;\n");
+        }
+        src.append("                default:\n                    in.skipValue();\n");
+        src.append("            }\n        }\n");
+        src.append("        in.endObject();\n");
+        src.append("        return new ").append(typeName).append("(");
+        for (int i = 0; i < parameters.size(); i++) {
+            src.append(i == 0 ? "p" : ", p").append(i);
+        }
+        src.append(");\n    }\n\n");
+
+        src.append("    public static ").append(typeName).append("[] readArray(final JsonCodecReader in) {\n");
+        src.append("        if (in.nextIsNull()) {\n            return null;\n        }\n");
+        src.append("        java.util.List<").append(typeName).append("> values = new java.util.ArrayList<")
+                .append(typeName).append(">();\n");
+        src.append("        in.beginArray();\n");
+        src.append("        while (in.hasNext()) {\n            values.add(read(in));\n        }\n");
+        src.append("        in.endArray();\n");
+        src.append("        return values.toArray(new ").append(typeName).append("[values.size()]);\n    }\n");
+        src.append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter()) {
+            writer.write(src.toString());
+        }
+    }
+
+    private List<Property> getters(final TypeElement type) {
+        List<Property> properties = new ArrayList<Property>();
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.METHOD || !member.getModifiers().contains(Modifier.PUBLIC)
+                    || member.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement) member;
+            String name = method.getSimpleName().toString();
+            if (!method.getParameters().isEmpty() || name.equals("getClass")) {
+                continue;
+            }
+            String property;
+            if (name.startsWith("get") && name.length() > 3) {
+                property = name.substring(3);
+            } else if (name.startsWith("is") && name.length() > 2 && method.getReturnType().getKind() == TypeKind.BOOLEAN) {
+                property = name.substring(2);
+            } else {
+                continue;
+            }
+            property = Character.toLowerCase(property.charAt(0)) + property.substring(1);
+            properties.add(new Property(property, name, checkSupported(method.getReturnType(), method)));
+        }
+        Collections.sort(properties, (a, b) -> a.name.compareTo(b.name));
+        return properties;
+    }
+
+    private List<Property> constructorParameters(final TypeElement type) {
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.CONSTRUCTOR || !member.getModifiers().contains(Modifier.PUBLIC)) {
+                continue;
+            }
+            List<Property> properties = new ArrayList<Property>();
+            for (VariableElement parameter : ((ExecutableElement) member).getParameters()) {
+                String name = jsonPropertyName(parameter);
+                if (name == null) {
+                    properties = null;
+                    break;
+                }
+                properties.add(new Property(name, null, checkSupported(parameter.asType(), parameter)));
+            }
+            if (properties != null) {
+                return properties;
+            }
+        }
+        throw new IllegalStateException(type.getSimpleName() + " has no public constructor with @JsonProperty parameters");
+    }
+
+    private static String jsonPropertyName(final Element element) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (!((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(JSON_PROPERTY)) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals("value")) {
+                    return (String) entry.getValue().getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private TypeMirror checkSupported(final TypeMirror type, final Element element) {
+        switch (type.getKind()) {
+            case INT:
+            case LONG:
+            case BOOLEAN:
+                return type;
+            case ARRAY:
+                TypeMirror component = ((ArrayType) type).getComponentType();
+                if (component.getKind() == TypeKind.DECLARED
+                        && (declaredName(component).equals("java.lang.String") || isDataType(component))) {
+                    return type;
+                }
+                break;
+            case DECLARED:
+                String name = declaredName(type);
+                if (name.equals("java.lang.String") || name.equals("java.lang.Integer") || name.equals("java.lang.Long")
+                        || name.equals("java.lang.Boolean") || isDataType(type)) {
+                    return type;
+                }
+                break;
+            default:
+                break;
+        }
+        throw new IllegalStateException("Unsupported property type " + type + " on " + element);
+    }
+
+    private static boolean isDataType(final TypeMirror type) {
+        for (AnnotationMirror mirror : ((DeclaredType) type).asElement().getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(DATA_TYPE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String declaredName(final TypeMirror type) {
+        return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+    }
+
+    private static String codecOf(final TypeMirror type) {
+        return ((DeclaredType) type).asElement().getSimpleName() + "JsonCodec";
+    }
+
+    private static String javaType(final TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return "int";
+            case LONG:
+                return "long";
+            case BOOLEAN:
+                return "boolean";
+            case ARRAY:
+                return javaType(((ArrayType) type).getComponentType()) + "[]";
+            default:
+                String name = declaredName(type);
+                return name.startsWith("java.lang.") ? name.substring("java.lang.".length()) : name;
+        }
+    }
+
+    private static String defaultValue(final TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return "0";
+            case LONG:
+                return "0L";
+            case BOOLEAN:
+                return "false";
+            default:
+                return "null";
+        }
+    }
+
+    private static String writeStatement(final TypeMirror type, final String value) {
+        switch (type.getKind()) {
+            case INT:
+            case LONG:
+            case BOOLEAN:
+                return "out.append(" + value + ");";
+            case ARRAY:
+                TypeMirror component = ((ArrayType) type).getComponentType();
+                if (component.getKind() == TypeKind.DECLARED && declaredName(component).equals("java.lang.String")) {
+                    return "JsonCodecWriter.writeStringArray(out, " + value + ");";
+                }
+                if (component.getKind() == TypeKind.DECLARED && isDataType(component)) {
+                    return codecOf(component) + ".writeArray(out, " + value + ");";
+                }
+                throw new IllegalStateException("Unsupported array type " + type);
+            default:
+                String name = declaredName(type);
+                if (name.equals("java.lang.String")) {
+                    return "JsonCodecWriter.writeString(out, " + value + ");";
+                }
+                if (isDataType(type)) {
+                    return codecOf(type) + ".write(out, " + value + ");";
+                }
+                return "JsonCodecWriter.writeBoxed(out, " + value + ");";
+        }
+    }
+
+    private static String readExpression(final TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return "in.nextInt()";
+            case LONG:
+                return "in.nextLong()";
+            case BOOLEAN:
+                return "in.nextBoolean()";
+            case ARRAY:
+                TypeMirror component = ((ArrayType) type).getComponentType();
+                if (component.getKind() == TypeKind.DECLARED && declaredName(component).equals("java.lang.String")) {
+                    return "in.nextStringArray()";
+                }
+                if (component.getKind() == TypeKind.DECLARED && isDataType(component)) {
+                    return codecOf(component) + ".readArray(in)";
+                }
+                throw new IllegalStateException("Unsupported array type " + type);
+            default:
+                String name = declaredName(type);
+                if (name.equals("java.lang.String")) {
+                    return "in.nextString()";
+                }
+                if (name.equals("java.lang.Integer")) {
+                    return "in.nextBoxedInt()";
+                }
+                if (name.equals("java.lang.Long")) {
+                    return "in.nextBoxedLong()";
+                }
+                if (name.equals("java.lang.Boolean")) {
+                    return "in.nextBoxedBoolean()";
+                }
+                return codecOf(type) + ".read(in)";
+        }
+    }
+
+    private static final class Property {
+        private final String name;
+        private final String accessor;
+        private final TypeMirror type;
+
+        Property(final String name, final String accessor, final TypeMirror type) {
+            this.name = name;
+            this.accessor = accessor;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reading side of the generated JSON codecs, a pull parser over a String. Like Genson
+ * it accepts numbers and booleans where a string is expected and quoted numbers where
+ * a number is expected, and it lets the codecs skip unknown fields.
+ *
+ */
+public final class JsonCodecReader {
+
+    private static final int MAX_DEPTH = 64;
+
+    private final String json;
+    private int position;
+    private final boolean[] first = new boolean[MAX_DEPTH];
+    private int depth;
+
+    public JsonCodecReader(final String json) {
+        this.json = json;
+    }
+
+    /**
+     * Parses a complete JSON document holding an array of strings.
+     */
+    public static String[] stringArrayFromJson(final String json) {
+        JsonCodecReader in = new JsonCodecReader(json);
+        String[] values = in.nextStringArray();
+        in.end();
+        return values;
+    }
+
+    public void beginObject() {
+        expect('{');
+        push();
+    }
+
+    public void endObject() {
+        expect('}');
+        depth--;
+    }
+
+    public void beginArray() {
+        expect('[');
+        push();
+    }
+
+    public void endArray() {
+        expect(']');
+        depth--;
+    }
+
+    /**
+     * @return true if the current object or array has another member, consuming the
+     *         separating comma
+     */
+    public boolean hasNext() {
+        char c = peek();
+        if (c == '}' || c == ']') {
+            return false;
+        }
+        if (first[depth - 1]) {
+            first[depth - 1] = false;
+        } else {
+            expect(',');
+        }
+        return true;
+    }
+
+    public String nextName() {
+        String name = readQuoted();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * Consumes a null literal if it is the next value.
+     */
+    public boolean nextIsNull() {
+        if (peek() == 'n') {
+            literal("null");
+            return true;
+        }
+        return false;
+    }
+
+    public String nextString() {
+        char c = peek();
+        if (c == '"') {
+            return readQuoted();
+        }
+        if (nextIsNull()) {
+            return null;
+        }
+        if (c == 't') {
+            literal("true");
+            return "true";
+        }
+        if (c == 'f') {
+            literal("false");
+            return "false";
+        }
+        return readNumber();
+    }
+
+    public int nextInt() {
+        String value = nextScalar();
+        try {
+            return value == null ? 0 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw error("Invalid integer " + value);
+        }
+    }
+
+    public long nextLong() {
+        String value = nextScalar();
+        try {
+            return value == null ? 0L : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw error("Invalid integer " + value);
+        }
+    }
+
+    public boolean nextBoolean() {
+        return Boolean.parseBoolean(nextScalar());
+    }
+
+    public Integer nextBoxedInt() {
+        return peek() == 'n' && nextIsNull() ? null : Integer.valueOf(nextInt());
+    }
+
+    public Long nextBoxedLong() {
+        return peek() == 'n' && nextIsNull() ? null : Long.valueOf(nextLong());
+    }
+
+    public Boolean nextBoxedBoolean() {
+        return peek() == 'n' && nextIsNull() ? null : Boolean.valueOf(nextBoolean());
+    }
+
+    public String[] nextStringArray() {
+        if (nextIsNull()) {
+            return null;
+        }
+        List<String> values = new ArrayList<String>();
+        beginArray();
+        while (hasNext()) {
+            values.add(nextString());
+        }
+        endArray();
+        return values.toArray(new String[values.size()]);
+    }
+
+    public void skipValue() {
+        char c = peek();
+        if (c == '{') {
+            beginObject();
+            while (hasNext()) {
+                nextName();
+                skipValue();
+            }
+            endObject();
+        } else if (c == '[') {
+            beginArray();
+            while (hasNext()) {
+                skipValue();
+            }
+            endArray();
+        } else {
+            nextString();
+        }
+    }
+
+    /**
+     * Checks that nothing but whitespace follows the parsed value.
+     */
+    public void end() {
+        skipWhitespace();
+        if (position != json.length()) {
+            throw error("Unexpected trailing content");
+        }
+    }
+
+    private String nextScalar() {
+        String value = nextString();
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private void push() {
+        if (depth == MAX_DEPTH) {
+            throw error("Nesting too deep");
+        }
+        first[depth++] = true;
+    }
+
+    private String readQuoted() {
+        expect('"');
+        StringBuilder value = null;
+        int start = position;
+        while (position < json.length()) {
+            char c = json.charAt(position);
+            if (c == '"') {
+                String text = value == null ? json.substring(start, position) : value.append(json, start, position).toString();
+                position++;
+                return text;
+            }
+            if (c == '\\') {
+                if (value == null) {
+                    value = new StringBuilder();
+                }
+                value.append(json, start, position);
+                value.append(readEscape());
+                start = position;
+            } else {
+                position++;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private char readEscape() {
+        position++;
+        if (position >= json.length()) {
+            throw error("Unterminated escape");
+        }
+        char c = json.charAt(position++);
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            case 'b':
+                return '\b';
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'f':
+                return '\f';
+            case 'r':
+                return '\r';
+            case 'u':
+                if (position + 4 > json.length()) {
+                    throw error("Unterminated escape");
+                }
+                try {
+                    char unicode = (char) Integer.parseInt(json.substring(position, position + 4), 16);
+                    position += 4;
+                    return unicode;
+                } catch (NumberFormatException e) {
+                    throw error("Invalid unicode escape");
+                }
+            default:
+                throw error("Invalid escape \\" + c);
+        }
+    }
+
+    private String readNumber() {
+        int start = position;
+        while (position < json.length()) {
+            char c = json.charAt(position);
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                position++;
+            } else {
+                break;
+            }
+        }
+        if (start == position) {
+            throw error("Unexpected character");
+        }
+        return json.substring(start, position);
+    }
+
+    private void literal(final String text) {
+        if (!json.startsWith(text, position)) {
+            throw error("Expected " + text);
+        }
+        position += text.length();
+    }
+
+    private void expect(final char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        position++;
+    }
+
+    private char peek() {
+        skipWhitespace();
+        if (position >= json.length()) {
+            throw error("Unexpected end of input");
+        }
+        return json.charAt(position);
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length()) {
+            char c = json.charAt(position);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(final String message) {
+        return new IllegalArgumentException(message + " at offset " + position);
+    }
+}
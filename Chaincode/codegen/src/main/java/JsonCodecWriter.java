@@ -0,0 +1,78 @@
+/**
+ * Writing side of the generated JSON codecs. Output matches what Genson writes for the
+ * same values: nulls are written, control characters and U+2028/U+2029 are escaped,
+ * everything else is copied as is.
+ *
+ */
+public final class JsonCodecWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private JsonCodecWriter() {
+    }
+
+    public static void writeString(final StringBuilder out, final String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            out.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                default:
+                    out.append("\\u").append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF])
+                            .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+            }
+        }
+        out.append(value, start, length);
+        out.append('"');
+    }
+
+    public static void writeStringArray(final StringBuilder out, final String[] values) {
+        if (values == null) {
+            out.append("null");
+            return;
+        }
+        out.append('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            writeString(out, values[i]);
+        }
+        out.append(']');
+    }
+
+    public static void writeBoxed(final StringBuilder out, final Object value) {
+        out.append(value == null ? "null" : value.toString());
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Writes a query response of the form {"Records":[...],"Truncated":false} one record at
+ * a time, so a query holds the response and the record being written, never the whole
+ * result set a second time. The response is capped at maxBytes of UTF-8: the first
+ * record that does not fit is dropped, Truncated is set and later records are refused.
+ *
+ */
+public final class JsonRecordStream {
+
+    private static final String PREFIX = "{\"Records\":[";
+    private static final String SUFFIX = "],\"Truncated\":false}";
+
+    private final StringBuilder out = new StringBuilder(1024);
+    private final StringBuilder record = new StringBuilder(256);
+    private final int maxBytes;
+    private int bytes;
+    private int count;
+    private boolean truncated;
+
+    public JsonRecordStream(final int maxBytes) {
+        this.maxBytes = maxBytes;
+        out.append(PREFIX);
+        bytes = PREFIX.length() + SUFFIX.length();
+    }
+
+    /**
+     * @return an empty buffer to write the next record into, see commit
+     */
+    public StringBuilder next() {
+        record.setLength(0);
+        return record;
+    }
+
+    /**
+     * Appends the record written into the buffer returned by next.
+     *
+     * @return false if the record did not fit and the response is truncated
+     */
+    public boolean commit() {
+        if (truncated) {
+            return false;
+        }
+        int size = utf8Length(record) + (count > 0 ? 1 : 0);
+        if (bytes + size > maxBytes) {
+            truncated = true;
+            return false;
+        }
+        if (count > 0) {
+            out.append(',');
+        }
+        out.append(record);
+        bytes += size;
+        count++;
+        return true;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return the complete response, the stream must not be used afterwards
+     */
+    public String finish() {
+        out.append("],\"Truncated\":").append(truncated).append('}');
+        return out.toString();
+    }
+
+    private static int utf8Length(final CharSequence value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * Copy of BucketCredential of the credential chaincode, used to read the response of
+ * readCredentialsForBuckets in planFileAccess. Either key and the credential fields are
+ * set, or error holds NOT_FOUND or ACCESS_DENIED. The two classes must keep the same
+ * properties.
+ *
+ */
+@DataType()
+public final class bucketCredential {
+
+    @Property()
+    private final String bucket;
+
+    @Property()
+    private final String key;
+
+    @Property()
+    private final String provider;
+
+    @Property()
+    private final String access_key;
+
+    @Property()
+    private final String secret_key;
+
+    @Property()
+    private final String access_level;
+
+    @Property()
+    private final String error;
+
+    public bucketCredential(@JsonProperty("bucket") final String bucket, @JsonProperty("key") final String key,
+                            @JsonProperty("provider") final String provider, @JsonProperty("access_key") final String access_key,
+                            @JsonProperty("secret_key") final String secret_key, @JsonProperty("access_level") final String access_level,
+                            @JsonProperty("error") final String error) {
+        this.bucket = bucket;
+        this.key = key;
+        this.provider = provider;
+        this.access_key = access_key;
+        this.secret_key = secret_key;
+        this.access_level = access_level;
+        this.error = error;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public String getAccess_key() {
+        return access_key;
+    }
+
+    public String getSecret_key() {
+        return secret_key;
+    }
+
+    public String getAccess_level() {
+        return access_level;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+
+        bucketCredential other = (bucketCredential) obj;
+
+        return Objects.deepEquals(new String[] {getBucket(), getKey(), getProvider(), getAccess_key(), getSecret_key(), getAccess_level(), getError()},
+                new String[] {other.getBucket(), other.getKey(), other.getProvider(), other.getAccess_key(), other.getSecret_key(), other.getAccess_level(), other.getError()});
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getBucket(), getKey(), getProvider(), getAccess_key(), getSecret_key(), getAccess_level(), getError());
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " [bucket=" + bucket + ", key=" + key
+                + ", provider=" + provider + ", access_key=" + access_key + ", secret_key=" + secret_key
+                + ", access_level=" + access_level + ", error=" + error + "]";
+    }
+}
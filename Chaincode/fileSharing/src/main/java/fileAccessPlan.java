@@ -0,0 +1,70 @@
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * Everything a client needs to download a file or upload to buckets: the fileData, null
+ * for an upload plan, and the credential of each bucket in the order of its buckets.
+ *
+ */
+@DataType()
+public final class fileAccessPlan {
+    @Property()
+    private final String key;
+
+    @Property()
+    private final fileData record;
+
+    @Property()
+    private final bucketCredential[] credentials;
+
+    public fileAccessPlan(@JsonProperty("key") final String key, @JsonProperty("record") final fileData record,
+                          @JsonProperty("credentials") final bucketCredential[] credentials) {
+        this.key = key;
+        this.record = record;
+        this.credentials = credentials;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public fileData getRecord() {
+        return record;
+    }
+
+    public bucketCredential[] getCredentials() {
+        return credentials;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+
+        fileAccessPlan other = (fileAccessPlan) obj;
+
+        return Objects.equals(getKey(), other.getKey()) && Objects.equals(getRecord(), other.getRecord())
+                && Arrays.equals(getCredentials(), other.getCredentials());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getKey(), getRecord(), Arrays.hashCode(getCredentials()));
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " [key=" + key + ", record="
+                + record + ", credentials=" + Arrays.toString(credentials) + "]";
+    }
+}
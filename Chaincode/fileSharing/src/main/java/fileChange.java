@@ -0,0 +1,72 @@
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * One fileData written by a transaction, as reported in change events: its key,
+ * the operation (create, update or delete) and the SHA-256 of the stored record, empty
+ * for a delete. The record itself is not included. Appending a version, compacting
+ * versions and registering a manifest are updates that may leave the stored record,
+ * and so the hash, unchanged; readers re-read the fileData on every update.
+ *
+ */
+@DataType()
+public final class fileChange {
+    @Property()
+    private final String key;
+
+    @Property()
+    private final String op;
+
+    @Property()
+    private final String hash;
+
+    public fileChange(@JsonProperty("key") final String key, @JsonProperty("op") final String op,
+                      @JsonProperty("hash") final String hash) {
+        this.key = key;
+        this.op = op;
+        this.hash = hash;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getOp() {
+        return op;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+
+        fileChange other = (fileChange) obj;
+
+        return Objects.equals(getKey(), other.getKey()) && Objects.equals(getOp(), other.getOp())
+                && Objects.equals(getHash(), other.getHash());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getKey(), getOp(), getHash());
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " [key=" + key + ", op=" + op
+                + ", hash=" + hash + "]";
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * One chunk of a fileManifest: the SHA-256 of its content as 64 hex digits and the
+ * buckets holding a copy of it.
+ *
+ */
+@DataType()
+public final class fileChunk {
+    @Property()
+    private final String hash;
+
+    @Property()
+    private final String[] buckets;
+
+    public fileChunk(@JsonProperty("hash") final String hash, @JsonProperty("buckets") final String[] buckets) {
+        this.hash = hash;
+        this.buckets = buckets;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String[] getBuckets() {
+        return buckets;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+
+        fileChunk other = (fileChunk) obj;
+
+        return Objects.equals(getHash(), other.getHash()) && Arrays.equals(getBuckets(), other.getBuckets());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getHash(), Arrays.hashCode(getBuckets()));
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " [hash=" + hash + ", buckets="
+                + Arrays.toString(buckets) + "]";
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * Merkle inclusion proof of one chunk of a fileManifest. path holds the hashes of the
+ * sibling subtrees from the leaf up to the root, as in the audit paths of RFC 6962, so
+ * a client can check a downloaded chunk against root with chunk_count and path alone.
+ *
+ */
+@DataType()
+public final class fileChunkProof {
+    @Property()
+    private final String key;
+
+    @Property()
+    private final int index;
+
+    @Property()
+    private final fileChunk chunk;
+
+    @Property()
+    private final int chunk_count;
+
+    @Property()
+    private final String root;
+
+    @Property()
+    private final String[] path;
+
+    public fileChunkProof(@JsonProperty("key") final String key, @JsonProperty("index") final int index,
+                          @JsonProperty("chunk") final fileChunk chunk, @JsonProperty("chunk_count") final int chunk_count,
+                          @JsonProperty("root") final String root, @JsonProperty("path") final String[] path) {
+        this.key = key;
+        this.index = index;
+        this.chunk = chunk;
+        this.chunk_count = chunk_count;
+        this.root = root;
+        this.path = path;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public fileChunk getChunk() {
+        return chunk;
+    }
+
+    public int getChunk_count() {
+        return chunk_count;
+    }
+
+    public String getRoot() {
+        return root;
+    }
+
+    public String[] getPath() {
+        return path;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+
+        fileChunkProof other = (fileChunkProof) obj;
+
+        return Objects.equals(getKey(), other.getKey()) && getIndex() == other.getIndex()
+                && Objects.equals(getChunk(), other.getChunk()) && getChunk_count() == other.getChunk_count()
+                && Objects.equals(getRoot(), other.getRoot()) && Arrays.equals(getPath(), other.getPath());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getKey(), getIndex(), getChunk(), getChunk_count(), getRoot(), Arrays.hashCode(getPath()));
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " [key=" + key + ", index=" + index
+                + ", chunk=" + chunk + ", chunk_count=" + chunk_count + ", root=" + root + ", path="
+                + Arrays.toString(path) + "]";
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * Stored object shared by every fileData with the same hash and encryption key: the
+ * buckets it was uploaded to by the first of them. key_digest is the SHA-256 of the
+ * encryption key in hex, null for content stored before it was recorded.
+ *
+ */
+@DataType()
+public final class fileContent {
+    @Property()
+    private final String hash;
+
+    @Property()
+    private final String key_digest;
+
+    @Property()
+    private final String buckets;
+
+    public fileContent(@JsonProperty("hash") final String hash, @JsonProperty("key_digest") final String key_digest,
+                       @JsonProperty("buckets") final String buckets) {
+        this.hash = hash;
+        this.key_digest = key_digest;
+        this.buckets = buckets;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String getKey_digest() {
+        return key_digest;
+    }
+
+    public String getBuckets() {
+        return buckets;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+
+        fileContent other = (fileContent) obj;
+
+        return Objects.equals(getHash(), other.getHash()) && Objects.equals(getKey_digest(), other.getKey_digest())
+                && Objects.equals(getBuckets(), other.getBuckets());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getHash(), getKey_digest(), getBuckets());
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " [hash=" + hash + ", key_digest="
+                + key_digest + ", buckets=" + buckets + "]";
+    }
+}
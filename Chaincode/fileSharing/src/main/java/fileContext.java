@@ -0,0 +1,158 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+
+/**
+ * Transaction context of fileContract.
+ *
+ * The caller's id and access level are parsed once per transaction, and the fileData
+ * records read or written by the transaction are kept decoded, so repeated accesses to
+ * the same key (batches, index lookups, update after read) do not go back to the peer.
+ * Writes are sent to the stub straight away and also recorded here, which gives the
+ * transaction read-your-writes on point reads. Range and rich queries still go to the
+ * peer and do not see the writes of the current transaction.
+ *
+ * The keys of the fileData written or deleted are kept in order, with whether the
+ * fileData existed before the transaction, for the change event of the transaction.
+ *
+ */
+public final class fileContext extends Context {
+
+    /**
+     * Ledger configuration record holding the storage encoding for new writes, see
+     * fileDataCodec. Kept on the ledger so every endorsing peer writes the same bytes.
+     */
+    private static final String CONFIG = "config";
+    private static final String CONFIG_ENCODING = "encoding";
+
+    private final Map<String, fileData> files = new HashMap<String, fileData>();
+    private final Map<String, byte[]> values = new HashMap<String, byte[]>();
+    private final Map<String, Boolean> changed = new LinkedHashMap<String, Boolean>();
+
+    private Integer accessLevel;
+    private String clientId;
+    private String storageEncoding;
+
+    public fileContext(final ChaincodeStub stub) {
+        super(stub);
+    }
+
+    /**
+     * @return the alevel attribute of the caller
+     */
+    public int getAccessLevel() {
+        if (accessLevel == null) {
+            accessLevel = Integer.valueOf(getClientIdentity().getAttributeValue("alevel"));
+        }
+        return accessLevel;
+    }
+
+    /**
+     * @return the id of the caller, as recorded in fileData.author
+     */
+    public String getClientId() {
+        if (clientId == null) {
+            clientId = getClientIdentity().getId();
+        }
+        return clientId;
+    }
+
+    /**
+     * @param key the key of the fileData
+     * @return the fileData, or null if it does not exist
+     */
+    public fileData getFile(final String key) {
+        if (files.containsKey(key)) {
+            return files.get(key);
+        }
+        byte[] value = getStub().getPrivateData("collectionFiles", key);
+        fileData fd = value == null || value.length == 0 ? null : fileDataCodec.decode(value);
+        files.put(key, fd);
+        return fd;
+    }
+
+    public void putFile(final String key, final fileData fd) {
+        getStub().putPrivateData("collectionFiles", key, fileDataCodec.encode(fd, getStorageEncoding()));
+        recordChange(key);
+        files.put(key, fd);
+    }
+
+    public void delFile(final String key) {
+        getStub().delPrivateData("collectionFiles", key);
+        recordChange(key);
+        files.put(key, null);
+    }
+
+    /**
+     * @return the keys of the fileData written or deleted by the transaction, in order,
+     * mapped to whether the fileData existed before it
+     */
+    public Map<String, Boolean> getChangedFiles() {
+        return changed;
+    }
+
+    /**
+     * Records an update of a fileData that is not rewritten, such as an appended version
+     * or a new manifest, so it is reported with the changes of the transaction.
+     */
+    public void markChanged(final String key) {
+        recordChange(key);
+    }
+
+    /**
+     * A fileData written without being read first is taken to have existed.
+     */
+    private void recordChange(final String key) {
+        if (!changed.containsKey(key)) {
+            changed.put(key, !files.containsKey(key) || files.get(key) != null);
+        }
+    }
+
+    /**
+     * Point read of another key of collectionFiles, such as an index entry, with the
+     * same read-your-writes cache as getFile.
+     * @param key the key
+     * @return the value, empty if the key does not exist
+     */
+    public byte[] getValue(final String key) {
+        byte[] value = values.get(key);
+        if (value == null) {
+            value = getStub().getPrivateData("collectionFiles", key);
+            values.put(key, value == null ? new byte[0] : value);
+        }
+        return values.get(key);
+    }
+
+    public void putValue(final String key, final byte[] value) {
+        getStub().putPrivateData("collectionFiles", key, value);
+        values.put(key, value);
+    }
+
+    public void delValue(final String key) {
+        getStub().delPrivateData("collectionFiles", key);
+        values.put(key, new byte[0]);
+    }
+
+    /**
+     * @return the encoding of fileData written by this transaction
+     */
+    public String getStorageEncoding() {
+        if (storageEncoding == null) {
+            String encoding = getStub().getPrivateDataUTF8("collectionFiles", configKey());
+            storageEncoding = encoding.isEmpty() ? fileDataCodec.JSON : encoding;
+        }
+        return storageEncoding;
+    }
+
+    public void setStorageEncoding(final String encoding) {
+        getStub().putPrivateData("collectionFiles", configKey(), encoding);
+        storageEncoding = encoding;
+    }
+
+    private String configKey() {
+        return getStub().createCompositeKey(CONFIG, CONFIG_ENCODING).toString();
+    }
+}
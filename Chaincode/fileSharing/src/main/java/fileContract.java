@@ -1,8 +1,21 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import org.hyperledger.fabric.contract.Context;
-import org.hyperledger.fabric.contract.ClientIdentity;
 import org.hyperledger.fabric.contract.ContractInterface;
 import org.hyperledger.fabric.contract.annotation.Contact;
 import org.hyperledger.fabric.contract.annotation.Contract;
@@ -10,15 +23,16 @@ import org.hyperledger.fabric.contract.annotation.Default;
 import org.hyperledger.fabric.contract.annotation.Info;
 import org.hyperledger.fabric.contract.annotation.License;
 import org.hyperledger.fabric.contract.annotation.Transaction;
+import org.hyperledger.fabric.shim.Chaincode;
 import org.hyperledger.fabric.shim.ChaincodeException;
 import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
 import org.hyperledger.fabric.shim.ledger.KeyValue;
 import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
 
-import com.owlike.genson.Genson;
-
 @Contract(
         name = "fileContract",
+        transactionSerializer = "fileTransactionSerializer",
         info = @Info(
                 title = "Cloud File Sharing Chaincode",
                 description = "TM470 Project ",
@@ -33,12 +47,228 @@ import com.owlike.genson.Genson;
 @Default
 public final class fileContract implements ContractInterface {
 
-    private final Genson genson = new Genson();
+    /**
+     * Secondary indexes kept next to the fileData records in collectionFiles. Each
+     * entry is a plain key RANGE_PREFIX + index + "~" + length + "~" + attribute + "~" +
+     * key with an empty value, so a lookup is a key range scan instead of a rich query.
+     * The length of the attribute comes first, so no attribute is the prefix of another.
+     * Unlike composite keys, plain keys can start a range scan, so a page resumes at its
+     * bookmark. fileData keys cannot start with RANGE_PREFIX.
+     * The author, name and access level index entries hold the fileSummary of their
+     * fileData as value instead of INDEX_VALUE, so summary listings are answered by the
+     * index scan alone. Entries written before summaries existed are rewritten by
+     * rebuildIndexes; until then listings read the record for them.
+     */
+    private static final String RANGE_PREFIX = "~";
+    private static final String AUTHOR_INDEX = "author";
+    private static final String NAME_INDEX = "name";
+    private static final String HASH_INDEX = "hash";
+    private static final byte[] INDEX_VALUE = new byte[] {0x00};
+
+    /**
+     * Follows every key under an index prefix, U+10FFFF as for partial composite keys.
+     */
+    private static final String INDEX_END = "\udbff\udfff";
+
+    /**
+     * Numeric indexes, plain keys RANGE_PREFIX + index + "~" + value + "~" + key. Numbers
+     * are written as 16 hex digits of value ^ Long.MIN_VALUE, so the entries sort
+     * numerically and a range query is a single key range scan, from the bookmark of the
+     * previous page when there is one.
+     */
+    private static final String SIZE_INDEX = "size";
+    private static final String CREATED_INDEX = "created";
+    private static final String LEVEL_INDEX = "level";
+
+    /**
+     * Proof of existence record, one per distinct content hash, keyed (existence, hash).
+     * Its value is the hash itself, so the on-chain private data hash of the record is
+     * SHA-256(hash) and can be checked by peers that are not members of the collection.
+     */
+    private static final String EXISTENCE = "existence";
+
+    /**
+     * Number of fileData referring to a hash, kept next to its existence record, keyed
+     * (existenceRefs, hash), as counted before CONTENT_REFS. It is no longer incremented
+     * but still counts towards the total, and a drop takes from it once no shard has a
+     * reference left. Hashes recorded before any count existed have neither count nor
+     * content and keep their existence record.
+     */
+    private static final String EXISTENCE_REFS = "existenceRefs";
+
+    /**
+     * Stored content, one record per distinct hash and encryption key, keyed (content,
+     * hash, key digest), see fileContent. A fileData created with a known hash and the
+     * same encryption key refers to the existing content instead of a new object. The
+     * key is the proof of possession: a client only learns the buckets of content it can
+     * decrypt, and every fileData holds the key its object is encrypted with. Content
+     * recorded before the key digest is keyed (content, hash) and no longer shared.
+     */
+    private static final String CONTENT = "content";
+
+    /**
+     * Number of contents of a hash, keyed (existenceContents, hash). The existence
+     * record of the hash is deleted with its last content. Only written when a content
+     * is added or released, so references do not conflict on it.
+     */
+    private static final String EXISTENCE_CONTENTS = "existenceContents";
+
+    /**
+     * References to a content, counted in REF_SHARDS counters keyed (contentRefs, hash,
+     * key digest, shard), or (contentRefs, hash, shard) for content without key digest.
+     * Peers only allow private data range queries in read-only transactions, so
+     * references are counted rather than scanned. A transaction adds or drops its
+     * reference on the shard picked by its transaction id, so concurrent creates and
+     * deletes of the same content only conflict when they pick the same shard. Counters
+     * never go negative: a drop that would empty its shard reads every shard instead,
+     * and takes the reference from a shard that has one, or releases the content with
+     * the last reference. Only those drops conflict with concurrent adds and drops, and
+     * content that is still referenced is never released.
+     */
+    private static final String CONTENT_REFS = "contentRefs";
+    private static final int REF_SHARDS = 16;
+
+    /**
+     * Number of files and bytes per author and per bucket, see fileUsage. Writers never
+     * share a key: each transaction adds its changes to a delta of its own, keyed
+     * (usageDelta, scope, subject, txId), and compactUsage folds deltas into the total
+     * keyed (usage, scope, subject). queryUsage adds the pending deltas to the total.
+     */
+    private static final String USAGE = "usage";
+    private static final String USAGE_DELTA = "usageDelta";
+    private static final String AUTHOR_SCOPE = "author";
+    private static final String BUCKET_SCOPE = "bucket";
+
+    /**
+     * Quota of an author, keyed (quota, author), a fileUsage holding the maximum files
+     * and bytes. createFileData checks it with point reads of the compacted total and of
+     * the delta of its own transaction. Deltas of other transactions since the last
+     * compaction are not seen, so the quota can be exceeded by that much.
+     */
+    private static final String QUOTA = "quota";
+
+    /**
+     * Appended changes of a fileData, keyed (version, key, base, time, txId). base is a
+     * digest of the fileData the change was appended to, and time the transaction
+     * timestamp in nanoseconds as 16 sortable hex digits. Appending only reads the
+     * fileData and writes a key of its own, so concurrent appends to a file do not
+     * conflict. A rewrite of the fileData changes its digest, which retires the
+     * versions appended to the previous one, so only compactFileData may rewrite a
+     * fileData with pending versions. Versions it is not given are left orphaned, and
+     * are listed and deleted by queryOrphanedFileDataVersions and purgeFileDataVersions.
+     */
+    private static final String VERSION = "version";
+
+    /**
+     * Marker of a fileData with pending versions, keyed (pendingVersions, key), holding
+     * the digest of the record they were appended to. Appends write it without reading
+     * it, so they still do not conflict with each other. updateFileData,
+     * updateFileDataOwner and deleteFileData read it and are refused while versions are
+     * pending, and fail validation when a version is appended concurrently, instead of
+     * retiring the versions unseen. compactFileData clears it, and reads only scan the
+     * versions of a fileData whose marker matches its record.
+     */
+    private static final String PENDING = "pendingVersions";
+
+    /**
+     * Change log, one entry per transaction that wrote fileData, appended a version to
+     * one, compacted its versions or registered its manifest, holding its
+     * fileChangeBatch, which is also emitted as the fileChanges event of the transaction.
+     * Entries are a numeric index of the transaction timestamp in milliseconds, keyed
+     * RANGE_PREFIX + change~time~txId, so every transaction writes a key of its own and
+     * queryChanges pages through the log like the other range queries. Timestamps are
+     * set by the submitting client, so the log is ordered by timestamp rather than by
+     * commit; a reader resuming from a timestamp should start a few minutes back and skip
+     * the transactions it has already seen.
+     */
+    private static final String CHANGES = "change";
+    private static final String CHANGE_EVENT = "fileChanges";
+
+    /**
+     * Chunk manifest of a fileData, keyed (manifest, key), see fileManifest.
+     */
+    private static final String MANIFEST = "manifest";
+
+    /**
+     * Upper bound on the chunks of a manifest, which is stored and read as one value.
+     */
+    private static final int MAX_CHUNKS = 10000;
+
+    /**
+     * Upper bound on records returned, and on records scanned, by one paginated query.
+     */
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_PAGE_SCAN = 10 * MAX_PAGE_SIZE;
+
+    /**
+     * Upper bound on the size of a streamed query response, kept well below the gRPC
+     * message limit of the peer.
+     */
+    private static final int MAX_RESPONSE_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Upper bound on items in one batch transaction.
+     */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    /**
+     * Name of the credential chaincode on the channel, called by the plan transactions.
+     */
+    private static final String CREDENTIAL_CHAINCODE = "cCredential";
 
     private enum FileErrors {
         NOT_FOUND,
         ALREADY_EXISTS,
-        ACCESS_DENIED
+        ACCESS_DENIED,
+        INVALID_ARGUMENT,
+        CREDENTIALS_UNAVAILABLE,
+        QUOTA_EXCEEDED,
+        VERSIONS_PENDING
+    }
+
+    @Override
+    public Context createContext(final ChaincodeStub stub) {
+        ChaincodeLog.bind(stub);
+        return TransactionMetrics.start(stub, fileContext::new);
+    }
+
+    /**
+     * Emits the changes of the transaction and records its metrics.
+     */
+    @Override
+    public void afterTransaction(final Context context, final Object result) {
+        try {
+            emitChanges((fileContext) context);
+        } finally {
+            TransactionMetrics.finish(context, result);
+            ChaincodeLog.unbind();
+        }
+    }
+
+    /**
+     * Emits the fileData changes of the transaction as one fileChanges event, and adds
+     * them to the change log. Only keys, operations and hashes are emitted, as events are
+     * visible to every member of the channel.
+     */
+    private void emitChanges(final fileContext ctx) {
+        List<fileChange> changes = new ArrayList<fileChange>();
+        for (Map.Entry<String, Boolean> change: ctx.getChangedFiles().entrySet()) {
+            fileData fd = ctx.getFile(change.getKey());
+            if (fd != null) {
+                changes.add(new fileChange(change.getKey(), change.getValue() ? "update" : "create", recordHash(fd)));
+            } else if (change.getValue()) {
+                changes.add(new fileChange(change.getKey(), "delete", ""));
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        ChaincodeStub stub = ctx.getStub();
+        long seq = stub.getTxTimestamp().toEpochMilli();
+        fileChangeBatch batch = new fileChangeBatch(seq, stub.getTxId(), changes.toArray(new fileChange[changes.size()]));
+        byte[] payload = fileChangeBatchJsonCodec.toJson(batch).getBytes(StandardCharsets.UTF_8);
+        ctx.putValue(numericIndexKey(CHANGES, stub.getTxId(), seq), payload);
+        stub.setEvent(CHANGE_EVENT, payload);
     }
 
     /**
@@ -54,65 +284,80 @@ public final class fileContract implements ContractInterface {
      * @param encryption_key of the file
      * @param buckets of the file
      * @param access_level the access_level of the file
-     * @return the created fileData
+     * @return the created fileData. If content with the same hash and encryption key is
+     * already stored, the fileData refers to it and gets its buckets, and the file need
+     * not be uploaded.
      */
     @Transaction()
-    public fileData createFileData(final Context ctx, final String key, final String name, final String format,
+    public fileData createFileData(final fileContext ctx, final String key, final String name, final String format,
                                        final String size, final String hash, final String creation_date,
                                    final String encryption_key, final String buckets, final String access_level ) {
-        ChaincodeStub stub = ctx.getStub();
-        ClientIdentity cid = ctx.getClientIdentity();
-        Integer access = Integer.valueOf(cid.getAttributeValue("alevel"));
-        String fdState = stub.getPrivateDataUTF8("collectionFiles", key);
-        String author = cid.getId();
-        if (!fdState.isEmpty()) {
-            String errorMessage = String.format("fileData %s already exists", key);
-            System.out.println(errorMessage);
+        int access = ctx.getAccessLevel();
+        String author = ctx.getClientId();
+        if (key.startsWith(RANGE_PREFIX)) {
+            String errorMessage = "Invalid key " + key + ", keys cannot start with " + RANGE_PREFIX;
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+        if (ctx.getFile(key) != null) {
+            String errorMessage = "fileData " + key + " already exists";
+            ChaincodeLog.warn(FileErrors.ALREADY_EXISTS.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, FileErrors.ALREADY_EXISTS.toString());
         }
 
+        Integer level = parseAccessLevel(access_level);
+        if (level == null) {
+            String errorMessage = "Invalid access level " + access_level + " of fileData " + key;
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+
         fileData fd = null;
-        if (access > 1 && Integer.valueOf(access_level) <= access){
-            fd = new fileData(name, format, size, hash, author, creation_date, encryption_key, buckets, access_level);
-            fdState = genson.serialize(fd);
-            stub.putPrivateData("collectionFiles",key, fdState);
+        if (access > 1 && level <= access){
+            fileContent content = getContent(ctx, hash, keyDigest(encryption_key));
+            fd = new fileData(name, format, size, hash, author, creation_date, encryption_key,
+                    content == null ? buckets : content.getBuckets(), access_level);
+            checkQuota(ctx, null, fd);
+            ctx.putFile(key, fd);
+            putIndexes(ctx, key, fd);
         }
         else {
-            String errorMessage = String.format("Access denied", key);
-            System.out.println(errorMessage);
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
         }
         return fd;
     }
 
     /**
-     * Reads a fileData on the ledger.
+     * Reads a fileData on the ledger, with the versions appended to it applied.
      * @param ctx the transaction context
      * @param key the key for the new fileData
      * @return  fileData
      */
     @Transaction()
-    public fileData readFileData(final Context ctx, final String key) {
-        ChaincodeStub stub = ctx.getStub();
-        String fdState = stub.getPrivateDataUTF8("collectionFiles", key);
-        ClientIdentity cid = ctx.getClientIdentity();
-        Integer access = Integer.valueOf(cid.getAttributeValue("alevel"));
-        if (fdState.isEmpty()) {
-            String errorMessage = String.format("fileData %s does not exist", key);
-            System.out.println(errorMessage);
+    public fileData readFileData(final fileContext ctx, final String key) {
+        fileData fd = ctx.getFile(key);
+        int access = ctx.getAccessLevel();
+        if (fd == null) {
+            String errorMessage = "fileData " + key + " does not exist";
+            ChaincodeLog.warn(FileErrors.NOT_FOUND.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, FileErrors.NOT_FOUND.toString());
         }
-        fileData fd = genson.deserialize(fdState, fileData.class);
-        if(access >= Integer.valueOf(fd.getAccess_level())){ return fd; }
+        for (fileDataVersion version: pendingVersions(ctx, key, fd)) {
+            fd = applyVersion(fd, version);
+        }
+        if (isVisible(ctx, fd.getAccess_level())) { return fd; }
         else {
-            String errorMessage = String.format("Access denied", key);
-            System.out.println(errorMessage);
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
         }
     }
 
     /**
-     * Updates of a fileData on the ledger.
+     * Updates of a fileData on the ledger. Refused while versions appended to it are
+     * pending; compactFileData folds them first.
      *
      * @param ctx the transaction context
      * @param key the key
@@ -127,65 +372,145 @@ public final class fileContract implements ContractInterface {
      * @return the updated fileData
      */
     @Transaction()
-    public fileData updateFileData(final Context ctx, final String key, final String name, final String format,
+    public fileData updateFileData(final fileContext ctx, final String key, final String name, final String format,
                                    final String size, final String hash, final String creation_date,
                                    final String encryption_key, final String buckets, final String access_level ) {
-        ChaincodeStub stub = ctx.getStub();
-        String fdState = stub.getPrivateDataUTF8("collectionFiles", key);
-        ClientIdentity cid = ctx.getClientIdentity();
-        String access = cid.getAttributeValue("alevel");
-        String author = cid.getId();
-        if (fdState.isEmpty()) {
-            String errorMessage = String.format("fileData %s does not exist", key);
-            System.out.println(errorMessage);
+        fileData fd = ctx.getFile(key);
+        int access = ctx.getAccessLevel();
+        String author = ctx.getClientId();
+        if (fd == null) {
+            String errorMessage = "fileData " + key + " does not exist";
+            ChaincodeLog.warn(FileErrors.NOT_FOUND.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, FileErrors.NOT_FOUND.toString());
         }
-        fileData fd = genson.deserialize(fdState, fileData.class);
+        checkNoPendingVersions(ctx, key, fd);
 
-        if (access.equals("3") || author.equals(fd.getAuthor())){
+        if (access == 3 || author.equals(fd.getAuthor())){
+            fileData previous = fd;
             fd = new fileData(name, format, size, hash, author, creation_date, encryption_key, buckets, access_level);
-            fdState = genson.serialize(fd);
-            stub.putPrivateData("collectionFiles",key, fdState);
+            checkQuota(ctx, previous, fd);
+            ctx.putFile(key, fd);
+            updateIndexes(ctx, key, previous, fd);
         }
         else {
-            String errorMessage = String.format("Access denied", key);
-            System.out.println(errorMessage);
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
         }
         return fd;
     }
 
     /**
-     * Deletes a fileData from the ledger.
+     * Deletes a fileData from the ledger. Refused while versions are pending, which
+     * compactFileData folds and deletes first.
      * @param ctx the transaction context
      * @param key the key for the fileData to delete
+     * @return true if it held the last reference to its content, whose object can then
+     * be removed from the buckets
      */
     @Transaction()
-    public void deleteFileData(final Context ctx, final String key) {
+    public Boolean deleteFileData(final fileContext ctx, final String key) {
         ChaincodeStub stub = ctx.getStub();
-        String fdState = stub.getPrivateDataUTF8("collectionFiles", key);
-        ClientIdentity cid = ctx.getClientIdentity();
-        Integer access = Integer.valueOf(cid.getAttributeValue("alevel"));
-        String author = cid.getId();
-        if (fdState.isEmpty()) {
-            String errorMessage = String.format("fileData %s does not exist", key);
-            System.out.println(errorMessage);
+        fileData fd = ctx.getFile(key);
+        int access = ctx.getAccessLevel();
+        String author = ctx.getClientId();
+        if (fd == null) {
+            String errorMessage = "fileData " + key + " does not exist";
+            ChaincodeLog.warn(FileErrors.NOT_FOUND.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, FileErrors.NOT_FOUND.toString());
         }
-        fileData fd = genson.deserialize(fdState, fileData.class);
+        checkNoPendingVersions(ctx, key, fd);
 
-        if (access.equals("3") || author.equals(fd.getAuthor())){
-            stub.delPrivateData("collectionFiles",key);
+        if (access == 3 || author.equals(fd.getAuthor())){
+            ctx.delFile(key);
+            ctx.delValue(stub.createCompositeKey(MANIFEST, key).toString());
+            clearPendingVersions(ctx, key);
+            return delIndexes(ctx, key, fd);
         }
         else {
-            String errorMessage = String.format("Access denied", key);
-            System.out.println(errorMessage);
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
         }
     }
 
     /**
-     * Change the owner of a fileData on the ledger.
+     * Creates several fileData in one transaction. Every item goes through the checks
+     * of createFileData; items that fail are reported and not written.
+     *
+     * @param ctx the transaction context
+     * @param files JSON array of {"Key": key, "Record": fileData}, the author of the records is ignored
+     * @return the result of each item, in input order
+     */
+    @Transaction()
+    public fileDataBatchResult[] createFileDataBatch(final fileContext ctx, final String files) {
+        fileDataQueryResult[] items = parseBatch(files, fileDataQueryResultJsonCodec::arrayFromJson);
+        fileDataBatchResult[] response = new fileDataBatchResult[items.length];
+        for (int i = 0; i < items.length; i++) {
+            String key = items[i].getKey();
+            fileData fd = items[i].getRecord();
+            try {
+                checkBatchKey(key);
+                checkBatchRecord(key, fd);
+                fileData created = createFileData(ctx, key, fd.getName(), fd.getFormat(), fd.getSize(), fd.getHash(),
+                        fd.getCreation_date(), fd.getEncryption_key(), fd.getBuckets(), fd.getAccess_level());
+                response[i] = new fileDataBatchResult(key, created, null, null);
+            } catch (ChaincodeException e) {
+                response[i] = batchError(key, e);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Reads several fileData in one transaction. Every item goes through the checks
+     * of readFileData.
+     *
+     * @param ctx the transaction context
+     * @param keys JSON array of fileData keys
+     * @return the result of each item, in input order
+     */
+    @Transaction()
+    public fileDataBatchResult[] readFileDataBatch(final fileContext ctx, final String keys) {
+        String[] items = parseBatch(keys, JsonCodecReader::stringArrayFromJson);
+        fileDataBatchResult[] response = new fileDataBatchResult[items.length];
+        for (int i = 0; i < items.length; i++) {
+            try {
+                response[i] = new fileDataBatchResult(items[i], readFileData(ctx, items[i]), null, null);
+            } catch (ChaincodeException e) {
+                response[i] = batchError(items[i], e);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Deletes several fileData in one transaction. Every item goes through the checks
+     * of deleteFileData; items that fail are reported and left in place.
+     *
+     * @param ctx the transaction context
+     * @param keys JSON array of fileData keys
+     * @return the result of each item, in input order
+     */
+    @Transaction()
+    public fileDataBatchResult[] deleteFileDataBatch(final fileContext ctx, final String keys) {
+        String[] items = parseBatch(keys, JsonCodecReader::stringArrayFromJson);
+        fileDataBatchResult[] response = new fileDataBatchResult[items.length];
+        for (int i = 0; i < items.length; i++) {
+            try {
+                checkBatchKey(items[i]);
+                deleteFileData(ctx, items[i]);
+                response[i] = new fileDataBatchResult(items[i], null, null, null);
+            } catch (ChaincodeException e) {
+                response[i] = batchError(items[i], e);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Change the owner of a fileData on the ledger. Refused while versions appended to
+     * it are pending, like updateFileData.
      *
      * @param ctx the transaction context
      * @param key the key
@@ -193,27 +518,26 @@ public final class fileContract implements ContractInterface {
      * @return the updated fileData
      */
     @Transaction()
-    public fileData updateFileDataOwner(final Context ctx, final String key, final String author) {
-        ChaincodeStub stub = ctx.getStub();
-        String fdState = stub.getPrivateDataUTF8("collectionFiles", key);
-        ClientIdentity cid = ctx.getClientIdentity();
-        String access = cid.getAttributeValue("alevel");
-        String owner = cid.getId();
-        if (fdState.isEmpty()) {
-            String errorMessage = String.format("fileData %s does not exist", key);
-            System.out.println(errorMessage);
+    public fileData updateFileDataOwner(final fileContext ctx, final String key, final String author) {
+        fileData fd = ctx.getFile(key);
+        int access = ctx.getAccessLevel();
+        String owner = ctx.getClientId();
+        if (fd == null) {
+            String errorMessage = "fileData " + key + " does not exist";
+            ChaincodeLog.warn(FileErrors.NOT_FOUND.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, FileErrors.NOT_FOUND.toString());
         }
-        fileData fd = genson.deserialize(fdState, fileData.class);
+        checkNoPendingVersions(ctx, key, fd);
         fileData fdUpdated = null;
-        if (access.equals("3") || owner.equals(fd.getAuthor())){
+        if (access == 3 || owner.equals(fd.getAuthor())){
             fdUpdated = new fileData(fd.getName(), fd.getFormat(), fd.getSize(), fd.getHash(), author, fd.getCreation_date(), fd.getEncryption_key(), fd.getBuckets(), fd.getAccess_level());
-            fdState = genson.serialize(fdUpdated);
-            stub.putPrivateData("collectionFiles",key, fdState);
+            checkQuota(ctx, fd, fdUpdated);
+            ctx.putFile(key, fdUpdated);
+            updateIndexes(ctx, key, fd, fdUpdated);
         }
         else {
-            String errorMessage = String.format("Access denied", key);
-            System.out.println(errorMessage);
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
         }
         return fdUpdated;
@@ -222,66 +546,1685 @@ public final class fileContract implements ContractInterface {
 
 
 
+    /**
+     * Appends an update to a fileData instead of rewriting it, so concurrent updates of
+     * the same file do not invalidate each other. The update takes effect on reads in
+     * the order of the transaction timestamps, and is folded into the record by
+     * compactFileData; until then the indexes and proofs of existence keep the values of
+     * the record.
+     *
+     * @param ctx the transaction context
+     * @param key the key
+     * @param name of the file
+     * @param format of the file
+     * @param size of the file
+     * @param hash of the file
+     * @param creation_date of the file
+     * @param encryption_key of the file
+     * @param buckets of the file
+     * @param access_level the access_level of the file
+     * @return the appended version
+     */
+    @Transaction()
+    public fileDataVersion appendFileDataVersion(final fileContext ctx, final String key, final String name,
+                                                 final String format, final String size, final String hash,
+                                                 final String creation_date, final String encryption_key,
+                                                 final String buckets, final String access_level) {
+        fileData base = checkAppend(ctx, key);
+        return appendVersion(ctx, key, base, new fileData(name, format, size, hash, ctx.getClientId(), creation_date,
+                encryption_key, buckets, access_level));
+    }
+
+    /**
+     * Appends a change of owner to a fileData, see appendFileDataVersion. Writes are
+     * checked against the record, so the new owner can append once the transfer is
+     * compacted; the previous owner's later versions are ignored from the transfer on.
+     *
+     * @param ctx the transaction context
+     * @param key the key
+     * @param author of the new file owner
+     * @return the appended version
+     */
+    @Transaction()
+    public fileDataVersion appendFileDataOwner(final fileContext ctx, final String key, final String author) {
+        fileData base = checkAppend(ctx, key);
+        return appendVersion(ctx, key, base, new fileData(null, null, null, null, author, null, null, null, null));
+    }
+
+    /**
+     * Lists the versions appended to a fileData since it was last written, oldest first,
+     * including those that do not apply because their writer lost the right to update.
+     * @param ctx the transaction context
+     * @param key the key
+     * @return the pending versions
+     */
     @Transaction()
-    public Boolean ProofOfExistence(final Context ctx, final String hash) {
-        String queryString = String.format("{\"selector\":{\"hash\":\"%s\"}}", hash);
-        fileDataQueryResult[] queryResults = queryResultForQueryString(ctx, queryString);
-        if (queryResults.toString().equals("[]")){
-            String errorMessage = String.format("fileData for given hash: %s, does not exist", hash);
-            System.out.println(errorMessage);
+    public fileDataVersion[] queryFileDataVersions(final fileContext ctx, final String key) {
+        fileData fd = ctx.getFile(key);
+        if (fd == null) {
+            String errorMessage = "fileData " + key + " does not exist";
+            ChaincodeLog.warn(FileErrors.NOT_FOUND.toString(), errorMessage);
             throw new ChaincodeException(errorMessage, FileErrors.NOT_FOUND.toString());
         }
-        else { return true; }
+        List<fileDataVersion> versions = pendingVersions(ctx, key, fd);
+        for (fileDataVersion version: versions) {
+            fd = applyVersion(fd, version);
+        }
+        if (!isVisible(ctx, fd.getAccess_level())) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
+        }
+        return versions.toArray(new fileDataVersion[versions.size()]);
     }
 
+    /**
+     * Folds versions into the fileData record and deletes them, then moves the indexes
+     * and the proof of existence to the resulting values. Peers refuse writes after a
+     * private data range query, so the versions are passed in: every version listed by
+     * queryFileDataVersions must be passed, as the rewrite retires those left out.
+     * Versions of an earlier record are deleted without being applied. Fails validation
+     * if a version is appended concurrently, as it would be retired unseen.
+     * @param ctx the transaction context
+     * @param key the key
+     * @param versions JSON array of version ids
+     * @return the compacted fileData
+     */
+    @Transaction()
+    public fileData compactFileData(final fileContext ctx, final String key, final String versions) {
+        ChaincodeStub stub = ctx.getStub();
+        String[] ids = parseBatch(versions, JsonCodecReader::stringArrayFromJson);
+        fileData base = checkAppend(ctx, key);
+        String digest = versionDigest(base);
+        clearPendingVersions(ctx, key);
+        List<fileDataVersion> folded = new ArrayList<fileDataVersion>();
+        for (String id: ids) {
+            String versionKey = versionKey(stub, key, id);
+            byte[] value = ctx.getValue(versionKey);
+            if (isEmpty(value)) {
+                continue;
+            }
+            ctx.delValue(versionKey);
+            ctx.markChanged(key);
+            if (id.startsWith(digest + "-")) {
+                folded.add(fileDataVersionJsonCodec.fromJson(new String(value, StandardCharsets.UTF_8)));
+            }
+        }
+        folded.sort(Comparator.comparing(fileDataVersion::getVersion));
+        fileData fd = base;
+        for (fileDataVersion version: folded) {
+            fd = applyVersion(fd, version);
+        }
+        if (!fd.equals(base)) {
+            ctx.putFile(key, fd);
+            updateIndexes(ctx, key, base, fd);
+        }
+        return fd;
+    }
 
+    /**
+     * Lists the versions of a fileData that no longer apply and are never read: those
+     * of an earlier record that a compaction was not given, and those of a deleted
+     * fileData. Level 3 only.
+     * @param ctx the transaction context
+     * @param key the key
+     * @return the ids of the orphaned versions, to be passed to purgeFileDataVersions
+     */
+    @Transaction()
+    public String[] queryOrphanedFileDataVersions(final fileContext ctx, final String key) {
+        ChaincodeStub stub = ctx.getStub();
+        if (ctx.getAccessLevel() != 3) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
+        }
+        String digest = pendingDigest(ctx, key, ctx.getFile(key));
+        List<String> orphans = new ArrayList<String>();
+        CompositeKey partialKey = stub.createCompositeKey(VERSION, key);
+        QueryResultsIterator<KeyValue> results = stub.getPrivateDataByPartialCompositeKey("collectionFiles", partialKey);
+        try {
+            for (KeyValue result: results) {
+                List<String> attributes = stub.splitCompositeKey(result.getKey()).getAttributes();
+                if (!attributes.get(1).equals(digest)) {
+                    orphans.add(String.join("-", attributes.subList(1, attributes.size())));
+                }
+            }
+        } finally {
+            closeIterator(results);
+        }
+        return orphans.toArray(new String[orphans.size()]);
+    }
 
+    /**
+     * Deletes orphaned versions of a fileData. Peers refuse writes after a private data
+     * range query, so the versions are passed in; pending versions are skipped, as only
+     * compactFileData may retire them. Level 3 only.
+     * @param ctx the transaction context
+     * @param key the key
+     * @param versions JSON array of version ids from queryOrphanedFileDataVersions
+     * @return number of versions deleted
+     */
     @Transaction()
-    public fileDataQueryResult[] queryByAuthor(final Context ctx, final String author) {
-        String queryString = String.format("{\"selector\":{\"author\":\"%s\"}}", author);
-        fileDataQueryResult[] queryResults = queryResultForQueryString(ctx, queryString);
-        return queryResults;
+    public Integer purgeFileDataVersions(final fileContext ctx, final String key, final String versions) {
+        ChaincodeStub stub = ctx.getStub();
+        if (ctx.getAccessLevel() != 3) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
+        }
+        String digest = pendingDigest(ctx, key, ctx.getFile(key));
+        int count = 0;
+        for (String id: parseBatch(versions, JsonCodecReader::stringArrayFromJson)) {
+            String versionKey = versionKey(stub, key, id);
+            if ((digest != null && id.startsWith(digest + "-")) || isEmpty(ctx.getValue(versionKey))) {
+                continue;
+            }
+            ctx.delValue(versionKey);
+            count++;
+        }
+        return count;
     }
 
+    /**
+     * Registers how a fileData is split into chunks, replacing any previous manifest.
+     * Clients can then move chunks in parallel and check each one against the Merkle
+     * root with queryChunkProof. When the size of the file is known, the number of
+     * chunks must match it.
+     * @param ctx the transaction context
+     * @param key the key of the fileData
+     * @param chunk_size size of every chunk but the last, in bytes
+     * @param chunks JSON array of {"hash": SHA-256 of the chunk in hex, "buckets": [bucket...]}, in file order
+     * @return the manifest with its Merkle root
+     */
     @Transaction()
-    public fileDataQueryResult[] queryAllByAccessLevel(final Context ctx) {
+    public fileManifest registerManifest(final fileContext ctx, final String key, final long chunk_size,
+                                         final String chunks) {
         ChaincodeStub stub = ctx.getStub();
-        ClientIdentity cid = ctx.getClientIdentity();
-        Integer access = Integer.valueOf(cid.getAttributeValue("alevel"));
-        String queryString = String.format("{\"selector\":{\"access_level\":{\"$lte\":\"%i\"}}}", access);
-        fileDataQueryResult[] queryResults = queryResultForQueryString(ctx, queryString);
-        return queryResults;
+        fileData fd = checkAppend(ctx, key);
+        fileChunk[] items;
+        try {
+            items = fileChunkJsonCodec.arrayFromJson(chunks);
+        } catch (RuntimeException e) {
+            items = null;
+        }
+        if (items == null || items.length == 0 || items.length > MAX_CHUNKS || chunk_size <= 0) {
+            String errorMessage = "Invalid manifest, expected a positive chunk size and 1 to " + MAX_CHUNKS + " chunks";
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+        Long size = fd.getSize_bytes();
+        if (size != null && size >= 0 && items.length != Math.max(1, (size - 1) / chunk_size + 1)) {
+            String errorMessage = "fileData " + key + " of " + size + " bytes cannot have " + items.length
+                    + " chunks of " + chunk_size + " bytes";
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+        String[] hashes = new String[items.length];
+        for (int i = 0; i < items.length; i++) {
+            if (items[i] == null || !fileMerkleTree.isHash(items[i].getHash()) || items[i].getBuckets() == null) {
+                String errorMessage = "Invalid chunk " + i + ", expected a SHA-256 hash and buckets";
+                ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+                throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+            }
+            hashes[i] = items[i].getHash().toLowerCase(Locale.ROOT);
+            items[i] = new fileChunk(hashes[i], items[i].getBuckets());
+        }
+        fileManifest manifest = new fileManifest(key, fd.getHash(), chunk_size, fileMerkleTree.root(hashes), items);
+        ctx.putValue(stub.createCompositeKey(MANIFEST, key).toString(),
+                fileManifestJsonCodec.toJson(manifest).getBytes(StandardCharsets.UTF_8));
+        ctx.markChanged(key);
+        return manifest;
     }
 
+    /**
+     * Reads the chunk manifest of a fileData, with the access check of readFileData.
+     * @param ctx the transaction context
+     * @param key the key of the fileData
+     * @return the manifest
+     */
     @Transaction()
-    public fileDataQueryResult[] queryForMyAccessLevel(final Context ctx) {
+    public fileManifest readManifest(final fileContext ctx, final String key) {
         ChaincodeStub stub = ctx.getStub();
-        ClientIdentity cid = ctx.getClientIdentity();
-        Integer access = Integer.valueOf(cid.getAttributeValue("alevel"));
-        String queryString = String.format("{\"selector\":{\"access_level\":{\"$eq\":\"%i\"}}}", access);
-        fileDataQueryResult[] queryResults = queryResultForQueryString(ctx, queryString);
-        return queryResults;
+        fileData fd = readFileData(ctx, key);
+        byte[] value = ctx.getValue(stub.createCompositeKey(MANIFEST, key).toString());
+        fileManifest manifest = isEmpty(value) ? null
+                : fileManifestJsonCodec.fromJson(new String(value, StandardCharsets.UTF_8));
+        if (manifest == null || !manifest.getHash().equals(fd.getHash())) {
+            String errorMessage = "fileData " + key + " has no manifest for its current content";
+            ChaincodeLog.warn(FileErrors.NOT_FOUND.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.NOT_FOUND.toString());
+        }
+        return manifest;
+    }
+
+    /**
+     * Returns the Merkle inclusion proof of one chunk, so a client can verify or repair
+     * that chunk without fetching the rest of the file.
+     * @param ctx the transaction context
+     * @param key the key of the fileData
+     * @param index of the chunk, from 0
+     * @return the chunk, its placement and the path to the root
+     */
+    @Transaction()
+    public fileChunkProof queryChunkProof(final fileContext ctx, final String key, final int index) {
+        fileManifest manifest = readManifest(ctx, key);
+        fileChunk[] chunks = manifest.getChunks();
+        if (index < 0 || index >= chunks.length) {
+            String errorMessage = "Invalid chunk " + index + ", fileData " + key + " has " + chunks.length + " chunks";
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+        String[] hashes = new String[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            hashes[i] = chunks[i].getHash();
+        }
+        return new fileChunkProof(key, index, chunks[index], chunks.length, manifest.getRoot(),
+                fileMerkleTree.path(hashes, index));
     }
 
+    /**
+     * Reads a fileData and the credentials of its buckets in one call, instead of
+     * readFileData followed by a credential lookup per bucket. The credentials come from
+     * readCredentialsForBuckets of the credential chaincode, which runs under the
+     * caller's identity and applies its own access rules to the caller's alevel.
+     * @param ctx the transaction context
+     * @param key the key of the fileData
+     * @return the fileData and one credential or error per bucket
+     */
+    @Transaction()
+    public fileAccessPlan planFileAccess(final fileContext ctx, final String key) {
+        fileData fd = readFileData(ctx, key);
+        String[] buckets;
+        try {
+            buckets = JsonCodecReader.stringArrayFromJson(fd.getBuckets());
+        } catch (RuntimeException e) {
+            buckets = null;
+        }
+        if (buckets == null) {
+            String errorMessage = "fileData " + key + " has invalid buckets " + fd.getBuckets() + ", expected a JSON array";
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+        return new fileAccessPlan(key, fd, readCredentials(ctx, buckets));
+    }
 
+    /**
+     * Resolves the credentials of the buckets a new file will be uploaded to, with the
+     * access check of createFileData.
+     * @param ctx the transaction context
+     * @param buckets JSON array of bucket names
+     * @return one credential or error per bucket, without fileData
+     */
     @Transaction()
-    public fileDataQueryResult[] queryByName(final Context ctx, final String name) {
-        String queryString = String.format("{\"selector\":{\"name\":\"%s\"}}", name);
-        fileDataQueryResult[] queryResults = queryResultForQueryString(ctx, queryString);
-        return queryResults;
+    public fileAccessPlan planUpload(final fileContext ctx, final String buckets) {
+        String[] names = parseBatch(buckets, JsonCodecReader::stringArrayFromJson);
+        if (ctx.getAccessLevel() <= 1) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
+        }
+        return new fileAccessPlan(null, null, readCredentials(ctx, names));
+    }
+
+    /**
+     * Reads the usage of an author or a bucket: the compacted total plus the pending
+     * deltas. Authors can read their own usage, level 3 callers any usage.
+     * @param ctx the transaction context
+     * @param scope author or bucket
+     * @param subject the author id or the bucket name
+     * @return the number of files and bytes
+     */
+    @Transaction()
+    public fileUsage queryUsage(final fileContext ctx, final String scope, final String subject) {
+        ChaincodeStub stub = ctx.getStub();
+        checkUsageAccess(ctx, scope, subject);
+        fileUsage total = readUsage(ctx.getValue(stub.createCompositeKey(USAGE, scope, subject).toString()), scope, subject);
+        long files = total.getFiles();
+        long bytes = total.getBytes();
+        CompositeKey partialKey = stub.createCompositeKey(USAGE_DELTA, scope, subject);
+        QueryResultsIterator<KeyValue> results = stub.getPrivateDataByPartialCompositeKey("collectionFiles", partialKey);
+        try {
+            for (KeyValue result: results) {
+                fileUsage delta = readUsage(result.getValue(), scope, subject);
+                files += delta.getFiles();
+                bytes += delta.getBytes();
+            }
+        } finally {
+            closeIterator(results);
+        }
+        return new fileUsage(scope, subject, files, bytes);
     }
 
+    /**
+     * Lists the transaction ids of the pending usage deltas of an author or a bucket,
+     * to be passed to compactUsage.
+     * @param ctx the transaction context
+     * @param scope author or bucket
+     * @param subject the author id or the bucket name
+     * @return the transaction ids
+     */
     @Transaction()
-    public fileDataQueryResult[] queryResultForQueryString(final Context ctx, final String queryString) {
+    public String[] queryUsageDeltas(final fileContext ctx, final String scope, final String subject) {
         ChaincodeStub stub = ctx.getStub();
-        List<fileDataQueryResult> queryResults = new ArrayList<fileDataQueryResult>();
-        QueryResultsIterator<KeyValue> results = stub.getPrivateDataQueryResult("collectionFiles", queryString);
-        for (KeyValue result: results) {
-            fileData cc = genson.deserialize(result.getStringValue(), fileData.class);
-            queryResults.add(new fileDataQueryResult(result.getKey(),cc));
+        checkUsageAccess(ctx, scope, subject);
+        List<String> deltas = new ArrayList<String>();
+        CompositeKey partialKey = stub.createCompositeKey(USAGE_DELTA, scope, subject);
+        QueryResultsIterator<KeyValue> results = stub.getPrivateDataByPartialCompositeKey("collectionFiles", partialKey);
+        try {
+            for (KeyValue result: results) {
+                deltas.add(stub.splitCompositeKey(result.getKey()).getAttributes().get(2));
+            }
+        } finally {
+            closeIterator(results);
+        }
+        return deltas.toArray(new String[deltas.size()]);
+    }
+
+    /**
+     * Folds usage deltas into the total of an author or a bucket and deletes them. Peers
+     * refuse writes after a private data range query, so the deltas are passed in.
+     * Meant to run periodically; it only conflicts with creates checking the quota of
+     * the same author.
+     * @param ctx the transaction context
+     * @param scope author or bucket
+     * @param subject the author id or the bucket name
+     * @param deltas JSON array of transaction ids from queryUsageDeltas
+     * @return the compacted total
+     */
+    @Transaction()
+    public fileUsage compactUsage(final fileContext ctx, final String scope, final String subject, final String deltas) {
+        ChaincodeStub stub = ctx.getStub();
+        if (ctx.getAccessLevel() != 3) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
+        }
+        checkUsageAccess(ctx, scope, subject);
+        String totalKey = stub.createCompositeKey(USAGE, scope, subject).toString();
+        fileUsage total = readUsage(ctx.getValue(totalKey), scope, subject);
+        long files = total.getFiles();
+        long bytes = total.getBytes();
+        for (String txId: parseBatch(deltas, JsonCodecReader::stringArrayFromJson)) {
+            String deltaKey = stub.createCompositeKey(USAGE_DELTA, scope, subject, txId).toString();
+            byte[] value = ctx.getValue(deltaKey);
+            if (isEmpty(value)) {
+                continue;
+            }
+            fileUsage delta = readUsage(value, scope, subject);
+            files += delta.getFiles();
+            bytes += delta.getBytes();
+            ctx.delValue(deltaKey);
+        }
+        total = new fileUsage(scope, subject, files, bytes);
+        ctx.putValue(totalKey, fileUsageJsonCodec.toJson(total).getBytes(StandardCharsets.UTF_8));
+        return total;
+    }
+
+    /**
+     * Sets the maximum number of files and bytes of an author, checked by createFileData,
+     * updateFileData and updateFileDataOwner.
+     * @param ctx the transaction context
+     * @param author the author id
+     * @param max_files maximum number of files
+     * @param max_bytes maximum total size in bytes
+     * @return the quota
+     */
+    @Transaction()
+    public fileUsage setQuota(final fileContext ctx, final String author, final long max_files, final long max_bytes) {
+        if (ctx.getAccessLevel() != 3) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
+        }
+        if (max_files < 0 || max_bytes < 0) {
+            String errorMessage = "Invalid quota of " + max_files + " files and " + max_bytes + " bytes";
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+        fileUsage quota = new fileUsage(AUTHOR_SCOPE, author, max_files, max_bytes);
+        ctx.putValue(ctx.getStub().createCompositeKey(QUOTA, author).toString(),
+                fileUsageJsonCodec.toJson(quota).getBytes(StandardCharsets.UTF_8));
+        return quota;
+    }
+
+    /**
+     * Looks up stored content by hash and encryption key, so a client can skip
+     * uploading a file whose content is already stored; createFileData with the same
+     * hash and key then only adds a reference to it. Content stored under another key
+     * is reported as not stored.
+     * @param ctx the transaction context
+     * @param hash of the file
+     * @param encryption_key of the file
+     * @return the content and its buckets
+     */
+    @Transaction()
+    public fileContent readContent(final fileContext ctx, final String hash, final String encryption_key) {
+        if (ctx.getAccessLevel() <= 1) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
+        }
+        fileContent content = getContent(ctx, hash, keyDigest(encryption_key));
+        if (content == null) {
+            String errorMessage = "Content for hash " + hash + " is not stored";
+            ChaincodeLog.warn(FileErrors.NOT_FOUND.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.NOT_FOUND.toString());
+        }
+        return content;
+    }
+
+    /**
+     * Checks that a file with the given content hash is stored, with a point read of
+     * its existence record.
+     * @param ctx the transaction context
+     * @param hash of the file
+     * @return true if the file exists
+     */
+    @Transaction()
+    public Boolean ProofOfExistence(final fileContext ctx, final String hash) {
+        ChaincodeStub stub = ctx.getStub();
+        byte[] existence = stub.getPrivateData("collectionFiles", existenceKey(stub, hash));
+        if (existence == null || existence.length == 0){
+            String errorMessage = "fileData for given hash: " + hash + ", does not exist";
+            ChaincodeLog.warn(FileErrors.NOT_FOUND.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.NOT_FOUND.toString());
+        }
+        else { return true; }
+    }
+
+    /**
+     * Checks that a file with the given content hash is stored, using only the private
+     * data hash recorded on the channel ledger. Usable by auditors whose organization
+     * is not a member of collectionFiles.
+     * @param ctx the transaction context
+     * @param hash of the file
+     * @return true if the file exists
+     */
+    @Transaction()
+    public Boolean verifyProofOfExistence(final fileContext ctx, final String hash) {
+        ChaincodeStub stub = ctx.getStub();
+        byte[] onChainHash = stub.getPrivateDataHash("collectionFiles", existenceKey(stub, hash));
+        if (onChainHash == null || onChainHash.length == 0) {
+            return false;
+        }
+        return MessageDigest.isEqual(onChainHash, sha256(hash.getBytes(StandardCharsets.UTF_8)));
+    }
+
+
+
+    @Transaction()
+    public fileDataQueryResult[] queryByAuthor(final fileContext ctx, final String author) {
+        fileDataQueryResult[] queryResults = queryResultForIndex(ctx, AUTHOR_INDEX, author);
+        return queryResults;
+    }
+
+    /**
+     * Rich query of the fileData at or below the access level of the caller. Matches the
+     * numeric access_level_number, which records written before it existed get from
+     * rebuildIndexes.
+     */
+    @Transaction()
+    public fileDataQueryResult[] queryAllByAccessLevel(final fileContext ctx) {
+        return queryResultForQueryString(ctx, accessLevelQuery("$lte", ctx.getAccessLevel()));
+    }
+
+    /**
+     * queryAllByAccessLevel with a response capped at MAX_RESPONSE_BYTES.
+     * @param ctx the transaction context
+     * @return {"Records": [{"key", "record"}...], "Truncated": true if the cap was reached}
+     */
+    @Transaction()
+    public String queryAllByAccessLevelStream(final fileContext ctx) {
+        return queryResultForQueryStringStream(ctx, accessLevelQuery("$lte", ctx.getAccessLevel()));
+    }
+
+    /**
+     * Rich query of the fileData at exactly the access level of the caller.
+     */
+    @Transaction()
+    public fileDataQueryResult[] queryForMyAccessLevel(final fileContext ctx) {
+        return queryResultForQueryString(ctx, accessLevelQuery("$eq", ctx.getAccessLevel()));
+    }
+
+    /**
+     * queryForMyAccessLevel with a response capped at MAX_RESPONSE_BYTES.
+     * @param ctx the transaction context
+     * @return {"Records": [{"key", "record"}...], "Truncated": true if the cap was reached}
+     */
+    @Transaction()
+    public String queryForMyAccessLevelStream(final fileContext ctx) {
+        return queryResultForQueryStringStream(ctx, accessLevelQuery("$eq", ctx.getAccessLevel()));
+    }
+
+    private static String accessLevelQuery(final String operator, final int access) {
+        return String.format("{\"selector\":{\"access_level_number\":{\"%s\":%d}},"
+                + "\"use_index\":[\"_design/indexAccessLevelDoc\",\"indexAccessLevel\"]}", operator, access);
+    }
+
+
+    @Transaction()
+    public fileDataQueryResult[] queryByName(final fileContext ctx, final String name) {
+        fileDataQueryResult[] queryResults = queryResultForIndex(ctx, NAME_INDEX, name);
+        return queryResults;
+    }
+
+    /**
+     * Query one page of the change log from a transaction timestamp, for indexers that
+     * missed fileChanges events.
+     * @param ctx the transaction context
+     * @param from earliest transaction timestamp in milliseconds since the epoch (inclusive)
+     * @param pageSize maximum number of transactions in the page
+     * @param bookmark returned with the previous page, empty for the first page
+     * @return the changes of each transaction, ordered by timestamp, and the bookmark of
+     * the next page
+     */
+    @Transaction()
+    public fileChangePage queryChanges(final fileContext ctx, final long from, final int pageSize, final String bookmark) {
+        if (ctx.getAccessLevel() != 3) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
+        }
+        List<fileChangeBatch> batches = new ArrayList<fileChangeBatch>();
+        String nextBookmark = scanRange(ctx, CHANGES, from, Long.MAX_VALUE, pageSize, bookmark, batches,
+                (txId, entry) -> fileChangeBatchJsonCodec.fromJson(new String(entry, StandardCharsets.UTF_8)));
+        return new fileChangePage(batches.toArray(new fileChangeBatch[batches.size()]), nextBookmark);
+    }
+
+    /**
+     * Lists the fileSummary of the fileData of an author, read from the index entries.
+     * @param ctx the transaction context
+     * @param author of the files
+     * @return the summaries at or below the access level of the caller, ordered by key
+     */
+    @Transaction()
+    public fileSummary[] queryByAuthorSummaries(final fileContext ctx, final String author) {
+        List<fileSummary> summaries = scanIndex(ctx, AUTHOR_INDEX, author, (key, entry) -> readSummary(ctx, key, entry));
+        return summaries.toArray(new fileSummary[summaries.size()]);
+    }
+
+    /**
+     * Lists the fileSummary of the fileData with the given name, read from the index
+     * entries.
+     * @param ctx the transaction context
+     * @param name of the files
+     * @return the summaries at or below the access level of the caller, ordered by key
+     */
+    @Transaction()
+    public fileSummary[] queryByNameSummaries(final fileContext ctx, final String name) {
+        List<fileSummary> summaries = scanIndex(ctx, NAME_INDEX, name, (key, entry) -> readSummary(ctx, key, entry));
+        return summaries.toArray(new fileSummary[summaries.size()]);
+    }
+
+    /**
+     * Query one page of the fileSummary of the fileData at or below the access level of
+     * the caller, read from the index entries.
+     * @param ctx the transaction context
+     * @param pageSize maximum number of summaries in the page
+     * @param bookmark returned with the previous page, empty for the first page
+     * @return the page and the bookmark of the next one
+     */
+    @Transaction()
+    public fileSummaryPage queryAllByAccessLevelSummaries(final fileContext ctx, final int pageSize, final String bookmark) {
+        int access = ctx.getAccessLevel();
+        List<fileSummary> summaries = new ArrayList<fileSummary>();
+        String nextBookmark = scanRange(ctx, LEVEL_INDEX, Integer.MIN_VALUE, access, pageSize, bookmark, summaries,
+                (key, entry) -> readSummary(ctx, key, entry));
+        return new fileSummaryPage(summaries.toArray(new fileSummary[summaries.size()]), nextBookmark);
+    }
+
+    /**
+     * Query one page of fileData of an author.
+     * @param ctx the transaction context
+     * @param author of the files
+     * @param pageSize maximum number of records in the page
+     * @param bookmark returned with the previous page, empty for the first page
+     * @return the page and the bookmark of the next one
+     */
+    @Transaction()
+    public fileDataQueryPage queryByAuthorWithPagination(final fileContext ctx, final String author, final int pageSize, final String bookmark) {
+        return queryPageForIndex(ctx, AUTHOR_INDEX, author, pageSize, bookmark);
+    }
+
+    /**
+     * Query one page of fileData with the given name.
+     * @param ctx the transaction context
+     * @param name of the files
+     * @param pageSize maximum number of records in the page
+     * @param bookmark returned with the previous page, empty for the first page
+     * @return the page and the bookmark of the next one
+     */
+    @Transaction()
+    public fileDataQueryPage queryByNameWithPagination(final fileContext ctx, final String name, final int pageSize, final String bookmark) {
+        return queryPageForIndex(ctx, NAME_INDEX, name, pageSize, bookmark);
+    }
+
+    /**
+     * Query one page of fileData at or below the access level of the caller.
+     * @param ctx the transaction context
+     * @param pageSize maximum number of records in the page
+     * @param bookmark returned with the previous page, empty for the first page
+     * @return the page and the bookmark of the next one
+     */
+    @Transaction()
+    public fileDataQueryPage queryAllByAccessLevelWithPagination(final fileContext ctx, final int pageSize, final String bookmark) {
+        int access = ctx.getAccessLevel();
+        return queryPageForRange(ctx, LEVEL_INDEX, Integer.MIN_VALUE, access, pageSize, bookmark);
+    }
+
+    /**
+     * Query one page of fileData at exactly the access level of the caller.
+     * @param ctx the transaction context
+     * @param pageSize maximum number of records in the page
+     * @param bookmark returned with the previous page, empty for the first page
+     * @return the page and the bookmark of the next one
+     */
+    @Transaction()
+    public fileDataQueryPage queryForMyAccessLevelWithPagination(final fileContext ctx, final int pageSize, final String bookmark) {
+        int access = ctx.getAccessLevel();
+        return queryPageForRange(ctx, LEVEL_INDEX, access, access, pageSize, bookmark);
+    }
+
+    /**
+     * Query one page of fileData with an access level in [minLevel, maxLevel], ordered by
+     * level. Levels above the access level of the caller are left out.
+     * @param ctx the transaction context
+     * @param minLevel lowest access level (inclusive)
+     * @param maxLevel highest access level (inclusive)
+     * @param pageSize maximum number of records in the page
+     * @param bookmark returned with the previous page, empty for the first page
+     * @return the page and the bookmark of the next one
+     */
+    @Transaction()
+    public fileDataQueryPage queryByAccessLevelRange(final fileContext ctx, final int minLevel, final int maxLevel,
+                                                     final int pageSize, final String bookmark) {
+        int access = ctx.getAccessLevel();
+        return queryPageForRange(ctx, LEVEL_INDEX, minLevel, Math.min(maxLevel, access), pageSize, bookmark);
+    }
+
+    /**
+     * Query one page of fileData with a size in [minSize, maxSize] bytes, ordered by size.
+     * fileData above the access level of the caller are left out.
+     * @param ctx the transaction context
+     * @param minSize smallest size (inclusive)
+     * @param maxSize largest size (inclusive)
+     * @param pageSize maximum number of records in the page
+     * @param bookmark returned with the previous page, empty for the first page
+     * @return the page and the bookmark of the next one
+     */
+    @Transaction()
+    public fileDataQueryPage queryBySizeRange(final fileContext ctx, final long minSize, final long maxSize,
+                                              final int pageSize, final String bookmark) {
+        return queryPageForRange(ctx, SIZE_INDEX, minSize, maxSize, pageSize, bookmark);
+    }
+
+    /**
+     * Query one page of fileData created in [from, to], ordered by creation time.
+     * fileData above the access level of the caller are left out.
+     * @param ctx the transaction context
+     * @param from earliest creation time in milliseconds since the epoch (inclusive)
+     * @param to latest creation time in milliseconds since the epoch (inclusive)
+     * @param pageSize maximum number of records in the page
+     * @param bookmark returned with the previous page, empty for the first page
+     * @return the page and the bookmark of the next one
+     */
+    @Transaction()
+    public fileDataQueryPage queryByCreationTimeRange(final fileContext ctx, final long from, final long to,
+                                                      final int pageSize, final String bookmark) {
+        return queryPageForRange(ctx, CREATED_INDEX, from, to, pageSize, bookmark);
+    }
+
+    /**
+     * Writes the author, name, hash and numeric index entries and the existence records
+     * for the given fileData, and rewrites them so they store the typed size, access
+     * level and creation time. Needed once for records created before these existed; keys
+     * can be listed with a rich query, as records without a level index entry are not
+     * returned by the access level queries. Peers refuse writes after a private data
+     * range query, so the keys are passed in instead of scanned.
+     * @param ctx the transaction context
+     * @param keys JSON array of fileData keys
+     * @return number of fileData indexed, records already indexed with summaries are skipped
+     */
+    @Transaction()
+    public Integer rebuildIndexes(final fileContext ctx, final String keys) {
+        if (ctx.getAccessLevel() != 3) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
+        }
+        int count = 0;
+        for (String key: parseBatch(keys, JsonCodecReader::stringArrayFromJson)) {
+            fileData fd = ctx.getFile(key);
+            if (fd == null) {
+                continue;
+            }
+            if (isEmpty(ctx.getValue(indexKey(HASH_INDEX, fd.getHash(), key)))) {
+                putIndexes(ctx, key, fd);
+            } else if (fd.getAccess_level_number() != null
+                    && isEmpty(ctx.getValue(numericIndexKey(LEVEL_INDEX, key, fd.getAccess_level_number())))) {
+                putNumericIndexes(ctx, key, fd);
+                putSummaries(ctx, key, fd);
+            } else if (!isSummary(ctx.getValue(indexKey(AUTHOR_INDEX, fd.getAuthor(), key)))) {
+                putSummaries(ctx, key, fd);
+            } else {
+                continue;
+            }
+            ctx.putFile(key, fd);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Selects the encoding of fileData written from now on. Existing values keep their
+     * encoding until migrateEncoding rewrites them; both are always readable.
+     * @param ctx the transaction context
+     * @param encoding json (needed for CouchDB rich queries) or binary
+     * @return the selected encoding
+     */
+    @Transaction()
+    public String setStorageEncoding(final fileContext ctx, final String encoding) {
+        if (ctx.getAccessLevel() != 3) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
+        }
+        if (!fileDataCodec.isSupported(encoding)) {
+            String errorMessage = "Unsupported encoding " + encoding;
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+        ctx.setStorageEncoding(encoding);
+        return encoding;
+    }
+
+    /**
+     * Rewrites the given fileData whose stored encoding differs from the selected one.
+     * Keys can be listed with queryAllByAccessLevelWithPagination. Peers refuse writes
+     * after a private data range query, so the keys are passed in instead of scanned.
+     * @param ctx the transaction context
+     * @param keys JSON array of fileData keys
+     * @return number of fileData rewritten
+     */
+    @Transaction()
+    public Integer migrateEncoding(final fileContext ctx, final String keys) {
+        ChaincodeStub stub = ctx.getStub();
+        if (ctx.getAccessLevel() != 3) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
+        }
+        boolean binary = fileDataCodec.BINARY.equals(ctx.getStorageEncoding());
+        int count = 0;
+        for (String key: parseBatch(keys, JsonCodecReader::stringArrayFromJson)) {
+            byte[] value = stub.getPrivateData("collectionFiles", key);
+            if (!isEmpty(value) && fileDataCodec.isBinary(value) != binary) {
+                ctx.putFile(key, fileDataCodec.decode(value));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private fileDataQueryResult[] queryResultForIndex(final fileContext ctx, final String index, final String value) {
+        List<fileDataQueryResult> queryResults = scanIndex(ctx, index, value, (key, entry) -> readResult(ctx, key));
+        fileDataQueryResult[] response = queryResults.toArray(new fileDataQueryResult[queryResults.size()]);
+        return response;
+    }
+
+    /**
+     * Reads every entry of an index for a value, passing the key and the value of each
+     * entry to read; null results are left out.
+     */
+    private static <T> List<T> scanIndex(final fileContext ctx, final String index, final String value,
+                                         final BiFunction<String, byte[], T> read) {
+        List<T> queryResults = new ArrayList<T>();
+        String prefix = indexPrefix(index, value);
+        QueryResultsIterator<KeyValue> results = ctx.getStub().getPrivateDataByRange("collectionFiles", prefix,
+                prefix + INDEX_END);
+        try {
+            for (KeyValue result: results) {
+                String key = result.getKey().substring(prefix.length());
+                T item = read.apply(key, result.getValue());
+                if (item != null) {
+                    queryResults.add(item);
+                }
+            }
+        } finally {
+            closeIterator(results);
+        }
+        return queryResults;
+    }
+
+    /**
+     * @return the fileData as a query result, or null when it is gone or above the access
+     * level of the caller, like readFileData would refuse it
+     */
+    private static fileDataQueryResult readResult(final fileContext ctx, final String key) {
+        fileData cc = ctx.getFile(key);
+        if (cc == null || !isVisible(ctx, cc.getAccess_level())) {
+            return null;
+        }
+        return new fileDataQueryResult(key, cc);
+    }
+
+    /**
+     * @return the summary held by an index entry, or read from the fileData when the
+     * entry predates summaries; null when it is gone or above the access level of the
+     * caller, like readResult
+     */
+    private static fileSummary readSummary(final fileContext ctx, final String key, final byte[] entry) {
+        fileSummary summary;
+        if (isSummary(entry)) {
+            summary = fileSummaryJsonCodec.fromJson(new String(entry, StandardCharsets.UTF_8));
+        } else {
+            fileData cc = ctx.getFile(key);
+            if (cc == null) {
+                return null;
+            }
+            summary = summaryOf(key, cc);
+        }
+        return isVisible(ctx, summary.getAccess_level()) ? summary : null;
+    }
+
+    /**
+     * @return true if the caller may read a fileData of this access level; levels that
+     * do not parse are hidden
+     */
+    private static boolean isVisible(final fileContext ctx, final String accessLevel) {
+        Integer level = parseAccessLevel(accessLevel);
+        return level != null && level <= ctx.getAccessLevel();
+    }
+
+    /**
+     * @return the access level as a number, or null when it does not parse
+     */
+    private static Integer parseAccessLevel(final String accessLevel) {
+        if (accessLevel == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(accessLevel.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isSummary(final byte[] entry) {
+        return entry != null && entry.length > 1 && entry[0] == '{';
+    }
+
+    private static fileSummary summaryOf(final String key, final fileData fd) {
+        return new fileSummary(key, fd.getName(), fd.getFormat(), fd.getSize(), fd.getCreation_date(), fd.getAccess_level());
+    }
+
+    private static byte[] summaryValue(final String key, final fileData fd) {
+        return fileSummaryJsonCodec.toJson(summaryOf(key, fd)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Private data has no paginated queries, so each page is a range scan of the index
+     * starting after the bookmark, see scanPage. Only one page is held in memory.
+     */
+    private fileDataQueryPage queryPageForIndex(final fileContext ctx, final String index, final String value,
+                                                final int pageSize, final String bookmark) {
+        List<fileDataQueryResult> queryResults = new ArrayList<fileDataQueryResult>();
+        String prefix = indexPrefix(index, value);
+        String nextBookmark = scanPage(ctx, prefix, prefix, prefix + INDEX_END, prefix.length(), pageSize, bookmark,
+                queryResults, (key, entry) -> readResult(ctx, key));
+        return new fileDataQueryPage(queryResults.toArray(new fileDataQueryResult[queryResults.size()]), nextBookmark);
+    }
+
+    /**
+     * Adds one page of the index entries in [startKey, endKey) following the bookmark to
+     * queryResults, passing the fileData key, found at keyOffset, and the value of each
+     * entry to read. A page ends when it is full or after MAX_PAGE_SCAN entries, so a
+     * page may hold fewer than pageSize records and still have a bookmark. The bookmark
+     * is the last index key visited, which must start with prefix.
+     * @return the bookmark of the next page
+     */
+    private static <T> String scanPage(final fileContext ctx, final String prefix, final String startKey,
+                                       final String endKey, final int keyOffset, final int pageSize,
+                                       final String bookmark, final List<T> queryResults,
+                                       final BiFunction<String, byte[], T> read) {
+        int limit = checkPageSize(pageSize);
+        String after = decodeBookmark(bookmark);
+        String from = startKey;
+        if (after != null) {
+            if (!after.startsWith(prefix)) {
+                String errorMessage = "Invalid bookmark " + bookmark;
+                ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+                throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+            }
+            // the first key following the bookmark
+            if (compareKeys(after + "\u0000", from) > 0) {
+                from = after + "\u0000";
+            }
+        }
+        String nextBookmark = "";
+        if (compareKeys(from, endKey) >= 0) {
+            return nextBookmark;
+        }
+        int scanned = 0;
+        QueryResultsIterator<KeyValue> results = ctx.getStub().getPrivateDataByRange("collectionFiles", from, endKey);
+        try {
+            Iterator<KeyValue> iterator = results.iterator();
+            while (iterator.hasNext()) {
+                KeyValue entry = iterator.next();
+                T item = read.apply(entry.getKey().substring(keyOffset), entry.getValue());
+                if (item != null) {
+                    queryResults.add(item);
+                }
+                if (queryResults.size() == limit || ++scanned == MAX_PAGE_SCAN) {
+                    if (iterator.hasNext()) {
+                        nextBookmark = encodeBookmark(entry.getKey());
+                    }
+                    break;
+                }
+            }
+        } finally {
+            closeIterator(results);
+        }
+        return nextBookmark;
+    }
+
+    /**
+     * Scans the entries of a numeric index in [min, max], in order, from the bookmark,
+     * see scanPage.
+     */
+    private fileDataQueryPage queryPageForRange(final fileContext ctx, final String index, final long min, final long max,
+                                                final int pageSize, final String bookmark) {
+        List<fileDataQueryResult> queryResults = new ArrayList<fileDataQueryResult>();
+        String nextBookmark = scanRange(ctx, index, min, max, pageSize, bookmark, queryResults,
+                (key, entry) -> readResult(ctx, key));
+        return new fileDataQueryPage(queryResults.toArray(new fileDataQueryResult[queryResults.size()]), nextBookmark);
+    }
+
+    /**
+     * Adds one page of the range to queryResults, passing the key and the value of each
+     * index entry to read, see scanPage.
+     * @return the bookmark of the next page
+     */
+    private static <T> String scanRange(final fileContext ctx, final String index, final long min, final long max,
+                                        final int pageSize, final String bookmark, final List<T> queryResults,
+                                        final BiFunction<String, byte[], T> read) {
+        if (min > max) {
+            checkPageSize(pageSize);
+            return "";
+        }
+        String prefix = RANGE_PREFIX + index + "~";
+        // "\u007f" follows the "~" ending each value, so the entries of max are included
+        return scanPage(ctx, prefix, prefix + sortable(min) + "~", prefix + sortable(max) + "\u007f",
+                prefix.length() + 17, pageSize, bookmark, queryResults, read);
+    }
+
+    private static int checkPageSize(final int pageSize) {
+        if (pageSize <= 0) {
+            String errorMessage = "Invalid page size " + pageSize;
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+        return Math.min(pageSize, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * @return the fileData, if the caller can update it
+     */
+    private static fileData checkAppend(final fileContext ctx, final String key) {
+        fileData fd = ctx.getFile(key);
+        if (fd == null) {
+            String errorMessage = "fileData " + key + " does not exist";
+            ChaincodeLog.warn(FileErrors.NOT_FOUND.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.NOT_FOUND.toString());
+        }
+        if (ctx.getAccessLevel() != 3 && !ctx.getClientId().equals(fd.getAuthor())) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
+        }
+        return fd;
+    }
+
+    private static fileDataVersion appendVersion(final fileContext ctx, final String key, final fileData base,
+                                                 final fileData change) {
+        ChaincodeStub stub = ctx.getStub();
+        Instant timestamp = stub.getTxTimestamp();
+        long nanos = timestamp.getEpochSecond() * 1_000_000_000L + timestamp.getNano();
+        String digest = versionDigest(base);
+        String id = digest + "-" + sortable(nanos) + "-" + stub.getTxId();
+        fileDataVersion version = new fileDataVersion(id, ctx.getClientId(), ctx.getAccessLevel(),
+                timestamp.toEpochMilli(), change);
+        ctx.putValue(versionKey(stub, key, id), fileDataVersionJsonCodec.toJson(version).getBytes(StandardCharsets.UTF_8));
+        ctx.putValue(pendingKey(stub, key), digest.getBytes(StandardCharsets.UTF_8));
+        ctx.markChanged(key);
+        return version;
+    }
+
+    /**
+     * Versions appended to the current record of a fileData, oldest first. The versions
+     * are only scanned, and the digest of the record computed, when it has a marker.
+     */
+    private static List<fileDataVersion> pendingVersions(final fileContext ctx, final String key, final fileData base) {
+        ChaincodeStub stub = ctx.getStub();
+        List<fileDataVersion> versions = new ArrayList<fileDataVersion>();
+        String digest = pendingDigest(ctx, key, base);
+        if (digest == null) {
+            return versions;
+        }
+        CompositeKey partialKey = stub.createCompositeKey(VERSION, key);
+        QueryResultsIterator<KeyValue> results = stub.getPrivateDataByPartialCompositeKey("collectionFiles", partialKey);
+        try {
+            for (KeyValue result: results) {
+                if (stub.splitCompositeKey(result.getKey()).getAttributes().get(1).equals(digest)) {
+                    versions.add(fileDataVersionJsonCodec.fromJson(result.getStringValue()));
+                }
+            }
+        } finally {
+            closeIterator(results);
+        }
+        return versions;
+    }
+
+    /**
+     * @return the digest of a fileData if versions appended to its record are pending,
+     * otherwise null
+     */
+    private static String pendingDigest(final fileContext ctx, final String key, final fileData fd) {
+        if (fd == null) {
+            return null;
+        }
+        byte[] marker = ctx.getValue(pendingKey(ctx.getStub(), key));
+        if (isEmpty(marker)) {
+            return null;
+        }
+        String digest = versionDigest(fd);
+        return digest.equals(new String(marker, StandardCharsets.UTF_8)) ? digest : null;
+    }
+
+    private static void checkNoPendingVersions(final fileContext ctx, final String key, final fileData fd) {
+        if (pendingDigest(ctx, key, fd) != null) {
+            String errorMessage = "fileData " + key + " has pending versions, compact them first";
+            ChaincodeLog.warn(FileErrors.VERSIONS_PENDING.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.VERSIONS_PENDING.toString());
+        }
+    }
+
+    private static void clearPendingVersions(final fileContext ctx, final String key) {
+        String pendingKey = pendingKey(ctx.getStub(), key);
+        if (!isEmpty(ctx.getValue(pendingKey))) {
+            ctx.delValue(pendingKey);
+        }
+    }
+
+    private static String pendingKey(final ChaincodeStub stub, final String key) {
+        return stub.createCompositeKey(PENDING, key).toString();
+    }
+
+    /**
+     * Applies a version if its writer could update the fileData it is applied to.
+     */
+    private static fileData applyVersion(final fileData fd, final fileDataVersion version) {
+        if (version.getWriter_access() != 3 && !version.getWriter().equals(fd.getAuthor())) {
+            return fd;
+        }
+        fileData change = version.getChange();
+        return new fileData(
+                change.getName() != null ? change.getName() : fd.getName(),
+                change.getFormat() != null ? change.getFormat() : fd.getFormat(),
+                change.getSize() != null ? change.getSize() : fd.getSize(),
+                change.getHash() != null ? change.getHash() : fd.getHash(),
+                change.getAuthor() != null ? change.getAuthor() : fd.getAuthor(),
+                change.getCreation_date() != null ? change.getCreation_date() : fd.getCreation_date(),
+                change.getEncryption_key() != null ? change.getEncryption_key() : fd.getEncryption_key(),
+                change.getBuckets() != null ? change.getBuckets() : fd.getBuckets(),
+                change.getAccess_level() != null ? change.getAccess_level() : fd.getAccess_level());
+    }
+
+    /**
+     * @return the SHA-256 of the JSON form of a fileData, the same for either encoding
+     */
+    private static String recordHash(final fileData fd) {
+        return fileMerkleTree.toHex(sha256(fileDataJsonCodec.toJson(fd).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String versionDigest(final fileData fd) {
+        byte[] digest = sha256(fileDataJsonCodec.toJson(fd).getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(16);
+        for (int i = 0; i < 8; i++) {
+            hex.append(String.format("%02x", digest[i]));
+        }
+        return hex.toString();
+    }
+
+    private static String versionKey(final ChaincodeStub stub, final String key, final String id) {
+        String[] parts = id == null ? new String[0] : id.split("-", 3);
+        if (parts.length != 3) {
+            String errorMessage = "Invalid version " + id;
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+        return stub.createCompositeKey(VERSION, key, parts[0], parts[1], parts[2]).toString();
+    }
+
+    /**
+     * Calls readCredentialsForBuckets of the credential chaincode. The call is part of
+     * the transaction, so it costs no extra round trip for the client.
+     */
+    private static bucketCredential[] readCredentials(final fileContext ctx, final String[] buckets) {
+        if (buckets.length == 0) {
+            return new bucketCredential[0];
+        }
+        StringBuilder json = new StringBuilder();
+        JsonCodecWriter.writeStringArray(json, buckets);
+        Chaincode.Response response = ctx.getStub().invokeChaincodeWithStringArgs(CREDENTIAL_CHAINCODE,
+                "readCredentialsForBuckets", json.toString());
+        if (response.getStatus() != Chaincode.Response.Status.SUCCESS) {
+            String errorMessage = "Credential lookup failed: " + response.getMessage();
+            ChaincodeLog.warn(FileErrors.CREDENTIALS_UNAVAILABLE.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.CREDENTIALS_UNAVAILABLE.toString());
+        }
+        return bucketCredentialJsonCodec.arrayFromJson(response.getStringPayload());
+    }
+
+    private static <T> T[] parseBatch(final String json, final Function<String, T[]> parser) {
+        T[] items;
+        try {
+            items = parser.apply(json);
+        } catch (RuntimeException e) {
+            String errorMessage = "Invalid batch, expected a JSON array";
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+        if (items == null || items.length > MAX_BATCH_SIZE) {
+            String errorMessage = "Invalid batch, expected 0 to " + MAX_BATCH_SIZE + " items";
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+        return items;
+    }
+
+    /**
+     * A key may repeat in a batch, later items see the writes of earlier ones through
+     * the transaction context.
+     */
+    private static void checkBatchKey(final String key) {
+        if (key == null) {
+            String errorMessage = "fileData key is missing in the batch";
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+    }
+
+    private static void checkBatchRecord(final String key, final fileData fd) {
+        if (fd == null || fd.getName() == null || fd.getFormat() == null || fd.getSize() == null || fd.getHash() == null
+                || fd.getCreation_date() == null || fd.getEncryption_key() == null || fd.getBuckets() == null
+                || fd.getAccess_level() == null) {
+            String errorMessage = "fileData " + key + " is incomplete";
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+        if (fd.getSize_bytes() == null || fd.getAccess_level_number() == null) {
+            String errorMessage = "fileData " + key + " has a non-numeric size or access level";
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+    }
+
+    private static fileDataBatchResult batchError(final String key, final ChaincodeException e) {
+        byte[] payload = e.getPayload();
+        String error = payload == null ? null : new String(payload, StandardCharsets.UTF_8);
+        return new fileDataBatchResult(key, null, error, e.getMessage());
+    }
+
+    private static String encodeBookmark(final String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeBookmark(final String bookmark) {
+        if (bookmark == null || bookmark.isEmpty()) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(bookmark), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            String errorMessage = "Invalid bookmark " + bookmark;
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+    }
+
+    /**
+     * Orders keys the way the state database does, by their UTF-8 bytes.
+     */
+    private static int compareKeys(final String a, final String b) {
+        return Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void putIndexes(final fileContext ctx, final String key, final fileData fd) {
+        ctx.putValue(indexKey(HASH_INDEX, fd.getHash(), key), INDEX_VALUE);
+        putNumericIndexes(ctx, key, fd);
+        putSummaries(ctx, key, fd);
+        putExistence(ctx, fd);
+        addUsage(ctx, fd, 1);
+    }
+
+    private void putNumericIndexes(final fileContext ctx, final String key, final fileData fd) {
+        updateNumericIndex(ctx, SIZE_INDEX, key, null, fd.getSize_bytes(), INDEX_VALUE, false);
+        updateNumericIndex(ctx, CREATED_INDEX, key, null, fd.getCreation_time(), INDEX_VALUE, false);
+    }
+
+    /**
+     * Writes the author, name and access level index entries with the summary as value.
+     */
+    private void putSummaries(final fileContext ctx, final String key, final fileData fd) {
+        byte[] summary = summaryValue(key, fd);
+        ctx.putValue(indexKey(AUTHOR_INDEX, fd.getAuthor(), key), summary);
+        ctx.putValue(indexKey(NAME_INDEX, fd.getName(), key), summary);
+        if (fd.getAccess_level_number() != null) {
+            ctx.putValue(numericIndexKey(LEVEL_INDEX, key, fd.getAccess_level_number()), summary);
+        }
+    }
+
+    /**
+     * @return true if the fileData held the last reference to its content
+     */
+    private boolean delIndexes(final fileContext ctx, final String key, final fileData fd) {
+        ctx.delValue(indexKey(AUTHOR_INDEX, fd.getAuthor(), key));
+        ctx.delValue(indexKey(NAME_INDEX, fd.getName(), key));
+        ctx.delValue(indexKey(HASH_INDEX, fd.getHash(), key));
+        updateNumericIndex(ctx, SIZE_INDEX, key, fd.getSize_bytes(), null, INDEX_VALUE, false);
+        updateNumericIndex(ctx, CREATED_INDEX, key, fd.getCreation_time(), null, INDEX_VALUE, false);
+        updateNumericIndex(ctx, LEVEL_INDEX, key, toLong(fd.getAccess_level_number()), null, INDEX_VALUE, false);
+        addUsage(ctx, fd, -1);
+        return releaseExistence(ctx, fd);
+    }
+
+    /**
+     * Moves only the index entries whose attribute changed between the two versions, and
+     * rewrites the entries holding the summary when it changed.
+     */
+    private void updateIndexes(final fileContext ctx, final String key, final fileData previous, final fileData fd) {
+        byte[] summary = summaryValue(key, fd);
+        boolean rewrite = !summaryOf(key, fd).equals(summaryOf(key, previous));
+        updateIndex(ctx, AUTHOR_INDEX, key, previous.getAuthor(), fd.getAuthor(), summary, rewrite);
+        updateIndex(ctx, NAME_INDEX, key, previous.getName(), fd.getName(), summary, rewrite);
+        updateIndex(ctx, HASH_INDEX, key, previous.getHash(), fd.getHash(), INDEX_VALUE, false);
+        updateNumericIndex(ctx, SIZE_INDEX, key, previous.getSize_bytes(), fd.getSize_bytes(), INDEX_VALUE, false);
+        updateNumericIndex(ctx, CREATED_INDEX, key, previous.getCreation_time(), fd.getCreation_time(), INDEX_VALUE, false);
+        updateNumericIndex(ctx, LEVEL_INDEX, key, toLong(previous.getAccess_level_number()),
+                toLong(fd.getAccess_level_number()), summary, rewrite);
+        if (!fd.getHash().equals(previous.getHash())
+                || !Objects.equals(fd.getEncryption_key(), previous.getEncryption_key())) {
+            releaseExistence(ctx, previous);
+            putExistence(ctx, fd);
+        }
+        if (!fd.getAuthor().equals(previous.getAuthor()) || !Objects.equals(fd.getSize_bytes(), previous.getSize_bytes())
+                || !Objects.equals(fd.getBuckets(), previous.getBuckets())) {
+            addUsage(ctx, previous, -1);
+            addUsage(ctx, fd, 1);
+        }
+    }
+
+    /**
+     * Moves an index entry when its attribute changed, writing entry as its value, or
+     * rewrites it in place when rewrite is set.
+     */
+    private void updateIndex(final fileContext ctx, final String index, final String key,
+                             final String previous, final String value, final byte[] entry, final boolean rewrite) {
+        if (value.equals(previous)) {
+            if (rewrite) {
+                ctx.putValue(indexKey(index, value, key), entry);
+            }
+            return;
+        }
+        ctx.delValue(indexKey(index, previous, key));
+        ctx.putValue(indexKey(index, value, key), entry);
+    }
+
+    private static String indexKey(final String index, final String value, final String key) {
+        return indexPrefix(index, value) + key;
+    }
+
+    private static String indexPrefix(final String index, final String value) {
+        return RANGE_PREFIX + index + "~" + value.length() + "~" + value + "~";
+    }
+
+    /**
+     * Moves the entry of a numeric index like updateIndex, null values have no entry.
+     */
+    private void updateNumericIndex(final fileContext ctx, final String index, final String key,
+                                    final Long previous, final Long value, final byte[] entry, final boolean rewrite) {
+        if (Objects.equals(previous, value)) {
+            if (rewrite && value != null) {
+                ctx.putValue(numericIndexKey(index, key, value), entry);
+            }
+            return;
+        }
+        if (previous != null) {
+            ctx.delValue(numericIndexKey(index, key, previous));
+        }
+        if (value != null) {
+            ctx.putValue(numericIndexKey(index, key, value), entry);
+        }
+    }
+
+    private static String numericIndexKey(final String index, final String key, final long value) {
+        return RANGE_PREFIX + index + "~" + sortable(value) + "~" + key;
+    }
+
+    private static String sortable(final long value) {
+        return String.format("%016x", value ^ Long.MIN_VALUE);
+    }
+
+    private static Long toLong(final Integer value) {
+        return value == null ? null : Long.valueOf(value);
+    }
+
+    private static boolean isEmpty(final byte[] value) {
+        return value == null || value.length == 0;
+    }
+
+    private static String existenceKey(final ChaincodeStub stub, final String hash) {
+        return stub.createCompositeKey(EXISTENCE, hash).toString();
+    }
+
+    /**
+     * Adds a fileData, or removes it with sign -1, to the usage delta of this
+     * transaction for its author and each of its buckets. Buckets that are not a JSON
+     * array are not counted.
+     */
+    private static void addUsage(final fileContext ctx, final fileData fd, final int sign) {
+        long bytes = fd.getSize_bytes() == null ? 0 : sign * fd.getSize_bytes();
+        addUsage(ctx, AUTHOR_SCOPE, fd.getAuthor(), sign, bytes);
+        String[] buckets;
+        try {
+            buckets = JsonCodecReader.stringArrayFromJson(fd.getBuckets());
+        } catch (RuntimeException e) {
+            return;
+        }
+        if (buckets != null) {
+            for (String bucket: buckets) {
+                addUsage(ctx, BUCKET_SCOPE, bucket, sign, bytes);
+            }
+        }
+    }
+
+    private static void addUsage(final fileContext ctx, final String scope, final String subject, final long files,
+                                 final long bytes) {
+        ChaincodeStub stub = ctx.getStub();
+        String deltaKey = stub.createCompositeKey(USAGE_DELTA, scope, subject, stub.getTxId()).toString();
+        fileUsage delta = readUsage(ctx.getValue(deltaKey), scope, subject);
+        fileUsage updated = new fileUsage(scope, subject, delta.getFiles() + files, delta.getBytes() + bytes);
+        ctx.putValue(deltaKey, fileUsageJsonCodec.toJson(updated).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static fileUsage readUsage(final byte[] value, final String scope, final String subject) {
+        if (isEmpty(value)) {
+            return new fileUsage(scope, subject, 0, 0);
+        }
+        return fileUsageJsonCodec.fromJson(new String(value, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Rejects a write of fd that takes its author over quota, counting the compacted
+     * usage, the delta of this transaction and what the write adds to it: the whole of
+     * fd for a new fileData (previous null) or a new author, the growth in size
+     * otherwise. Writes that add nothing are allowed over quota, so a file can shrink.
+     */
+    private static void checkQuota(final fileContext ctx, final fileData previous, final fileData fd) {
+        ChaincodeStub stub = ctx.getStub();
+        boolean sameAuthor = previous != null && fd.getAuthor().equals(previous.getAuthor());
+        long addedFiles = sameAuthor ? 0 : 1;
+        long addedBytes = sizeBytes(fd) - (sameAuthor ? sizeBytes(previous) : 0);
+        if (addedFiles <= 0 && addedBytes <= 0) {
+            return;
+        }
+        byte[] value = ctx.getValue(stub.createCompositeKey(QUOTA, fd.getAuthor()).toString());
+        if (isEmpty(value)) {
+            return;
+        }
+        fileUsage quota = readUsage(value, AUTHOR_SCOPE, fd.getAuthor());
+        fileUsage total = readUsage(ctx.getValue(stub.createCompositeKey(USAGE, AUTHOR_SCOPE, fd.getAuthor()).toString()),
+                AUTHOR_SCOPE, fd.getAuthor());
+        fileUsage own = readUsage(ctx.getValue(stub.createCompositeKey(USAGE_DELTA, AUTHOR_SCOPE, fd.getAuthor(),
+                stub.getTxId()).toString()), AUTHOR_SCOPE, fd.getAuthor());
+        long files = total.getFiles() + own.getFiles() + addedFiles;
+        long bytes = total.getBytes() + own.getBytes() + addedBytes;
+        if ((addedFiles > 0 && files > quota.getFiles()) || (addedBytes > 0 && bytes > quota.getBytes())) {
+            String errorMessage = "Quota of " + quota.getFiles() + " files and " + quota.getBytes() + " bytes exceeded";
+            ChaincodeLog.warn(FileErrors.QUOTA_EXCEEDED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.QUOTA_EXCEEDED.toString());
+        }
+    }
+
+    private static long sizeBytes(final fileData fd) {
+        return fd.getSize_bytes() == null ? 0 : fd.getSize_bytes();
+    }
+
+    private static void checkUsageAccess(final fileContext ctx, final String scope, final String subject) {
+        if (!AUTHOR_SCOPE.equals(scope) && !BUCKET_SCOPE.equals(scope)) {
+            String errorMessage = "Invalid scope " + scope + ", expected " + AUTHOR_SCOPE + " or " + BUCKET_SCOPE;
+            ChaincodeLog.warn(FileErrors.INVALID_ARGUMENT.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.INVALID_ARGUMENT.toString());
+        }
+        if (ctx.getAccessLevel() != 3 && !(AUTHOR_SCOPE.equals(scope) && ctx.getClientId().equals(subject))) {
+            String errorMessage = "Access denied";
+            ChaincodeLog.warn(FileErrors.ACCESS_DENIED.toString(), errorMessage);
+            throw new ChaincodeException(errorMessage, FileErrors.ACCESS_DENIED.toString());
+        }
+    }
+
+    private static fileContent getContent(final fileContext ctx, final String hash, final String keyDigest) {
+        byte[] value = ctx.getValue(contentKey(ctx.getStub(), hash, keyDigest));
+        return isEmpty(value) ? null : fileContentJsonCodec.fromJson(new String(value, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds a reference from a fileData to the content of its hash and encryption key,
+     * recording new content with the buckets of the fileData. Hashes recorded before
+     * reference counting are left uncounted.
+     */
+    private void putExistence(final fileContext ctx, final fileData fd) {
+        ChaincodeStub stub = ctx.getStub();
+        String hash = fd.getHash();
+        String keyDigest = keyDigest(fd.getEncryption_key());
+        if (getContent(ctx, hash, keyDigest) == null) {
+            String existenceKey = existenceKey(stub, hash);
+            String contentsKey = stub.createCompositeKey(EXISTENCE_CONTENTS, hash).toString();
+            long contents = parseRefs(ctx.getValue(contentsKey));
+            if (contents == 0 && !hasUnkeyedContent(ctx, hash)) {
+                if (!isEmpty(ctx.getValue(existenceKey))) {
+                    return;
+                }
+                ctx.putValue(existenceKey, hash.getBytes(StandardCharsets.UTF_8));
+            }
+            ctx.putValue(contentsKey, Long.toString(contents + 1).getBytes(StandardCharsets.UTF_8));
+            ctx.putValue(contentKey(stub, hash, keyDigest), fileContentJsonCodec.toJson(
+                    new fileContent(hash, keyDigest, fd.getBuckets())).getBytes(StandardCharsets.UTF_8));
+        }
+        String shardKey = refShardKey(stub, hash, keyDigest, Math.floorMod(stub.getTxId().hashCode(), REF_SHARDS));
+        ctx.putValue(shardKey, Long.toString(parseRefs(ctx.getValue(shardKey)) + 1).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Drops the reference of a fileData to its content, and the content and its counters
+     * with the last one; the existence record goes with the last content of the hash. A
+     * fileData without content of its key refers to the content recorded without key
+     * digest.
+     * @return true if that was the last reference
+     */
+    private boolean releaseExistence(final fileContext ctx, final fileData fd) {
+        ChaincodeStub stub = ctx.getStub();
+        String hash = fd.getHash();
+        String keyDigest = keyDigest(fd.getEncryption_key());
+        if (getContent(ctx, hash, keyDigest) == null) {
+            keyDigest = null;
+        }
+        String refsKey = stub.createCompositeKey(EXISTENCE_REFS, hash).toString();
+        String contentKey = contentKey(stub, hash, keyDigest);
+        byte[] refs = keyDigest == null ? ctx.getValue(refsKey) : null;
+        if (isEmpty(refs) && isEmpty(ctx.getValue(contentKey))) {
+            return false;
+        }
+        int own = Math.floorMod(stub.getTxId().hashCode(), REF_SHARDS);
+        String ownKey = refShardKey(stub, hash, keyDigest, own);
+        long ownRefs = parseRefs(ctx.getValue(ownKey));
+        if (ownRefs > 1) {
+            ctx.putValue(ownKey, Long.toString(ownRefs - 1).getBytes(StandardCharsets.UTF_8));
+            return false;
+        }
+        // the shard would drop to zero, so count the others and drop a reference held by one
+        long total = parseRefs(refs);
+        int holder = ownRefs > 0 ? own : -1;
+        long holderRefs = ownRefs;
+        for (int shard = 0; shard < REF_SHARDS; shard++) {
+            if (shard != own) {
+                long count = parseRefs(ctx.getValue(refShardKey(stub, hash, keyDigest, shard)));
+                total += count;
+                if (holder < 0 && count > 0) {
+                    holder = shard;
+                    holderRefs = count;
+                }
+            }
+        }
+        total += ownRefs;
+        if (total > 1) {
+            if (holder >= 0) {
+                String holderKey = refShardKey(stub, hash, keyDigest, holder);
+                if (holderRefs > 1) {
+                    ctx.putValue(holderKey, Long.toString(holderRefs - 1).getBytes(StandardCharsets.UTF_8));
+                } else {
+                    ctx.delValue(holderKey);
+                }
+            } else {
+                ctx.putValue(refsKey, Long.toString(parseRefs(refs) - 1).getBytes(StandardCharsets.UTF_8));
+            }
+            return false;
+        }
+        for (int shard = 0; shard < REF_SHARDS; shard++) {
+            String shardKey = refShardKey(stub, hash, keyDigest, shard);
+            if (!isEmpty(ctx.getValue(shardKey))) {
+                ctx.delValue(shardKey);
+            }
+        }
+        if (!isEmpty(refs)) {
+            ctx.delValue(refsKey);
+        }
+        ctx.delValue(contentKey);
+        String contentsKey = stub.createCompositeKey(EXISTENCE_CONTENTS, hash).toString();
+        long contents = parseRefs(ctx.getValue(contentsKey));
+        if (keyDigest != null) {
+            contents--;
+            if (contents > 0) {
+                ctx.putValue(contentsKey, Long.toString(contents).getBytes(StandardCharsets.UTF_8));
+            } else {
+                ctx.delValue(contentsKey);
+            }
+        }
+        if (contents <= 0 && !hasUnkeyedContent(ctx, hash)) {
+            ctx.delValue(existenceKey(stub, hash));
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the hash has a reference count or content from before contents
+     * were keyed by encryption key
+     */
+    private static boolean hasUnkeyedContent(final fileContext ctx, final String hash) {
+        ChaincodeStub stub = ctx.getStub();
+        return !isEmpty(ctx.getValue(stub.createCompositeKey(EXISTENCE_REFS, hash).toString()))
+                || !isEmpty(ctx.getValue(contentKey(stub, hash, null)));
+    }
+
+    /**
+     * @param keyDigest null for content recorded without key digest
+     */
+    private static String contentKey(final ChaincodeStub stub, final String hash, final String keyDigest) {
+        return keyDigest == null ? stub.createCompositeKey(CONTENT, hash).toString()
+                : stub.createCompositeKey(CONTENT, hash, keyDigest).toString();
+    }
+
+    private static String refShardKey(final ChaincodeStub stub, final String hash, final String keyDigest,
+                                      final int shard) {
+        return keyDigest == null ? stub.createCompositeKey(CONTENT_REFS, hash, Integer.toString(shard)).toString()
+                : stub.createCompositeKey(CONTENT_REFS, hash, keyDigest, Integer.toString(shard)).toString();
+    }
+
+    /**
+     * @return the SHA-256 of an encryption key in hex, which identifies content along
+     * with its hash
+     */
+    private static String keyDigest(final String encryptionKey) {
+        String key = encryptionKey == null ? "" : encryptionKey;
+        return fileMerkleTree.toHex(sha256(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @return the count, 0 for a counter that does not exist
+     */
+    private static long parseRefs(final byte[] refs) {
+        return isEmpty(refs) ? 0 : Long.parseLong(new String(refs, StandardCharsets.UTF_8));
+    }
+
+    private static byte[] sha256(final byte[] value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value);
+        } catch (NoSuchAlgorithmException e) {
+            throw new ChaincodeException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void closeIterator(final QueryResultsIterator<KeyValue> results) {
+        try {
+            results.close();
+        } catch (Exception e) {
+            throw new ChaincodeException("Failed to close query iterator", e);
+        }
+    }
+
+    @Transaction()
+    public fileDataQueryResult[] queryResultForQueryString(final fileContext ctx, final String queryString) {
+        List<fileDataQueryResult> queryResults = new ArrayList<fileDataQueryResult>();
+        scanQueryString(ctx, queryString, queryResults::add);
+        fileDataQueryResult[] response = queryResults.toArray(new fileDataQueryResult[queryResults.size()]);
+        return response;
+    }
+
+    /**
+     * Runs a CouchDB rich query. Records are decoded and written to the response one at
+     * a time, and the query stops once the response reaches MAX_RESPONSE_BYTES.
+     * @param ctx the transaction context
+     * @param queryString the CouchDB selector
+     * @return {"Records": [{"key", "record"}...], "Truncated": true if the cap was reached}
+     */
+    @Transaction()
+    public String queryResultForQueryStringStream(final fileContext ctx, final String queryString) {
+        JsonRecordStream response = new JsonRecordStream(MAX_RESPONSE_BYTES);
+        scanQueryString(ctx, queryString, result -> {
+            fileDataQueryResultJsonCodec.write(response.next(), result);
+            return response.commit();
+        });
+        return response.finish();
+    }
+
+    /**
+     * Passes the results of a rich query to sink until it returns false.
+     */
+    private static void scanQueryString(final fileContext ctx, final String queryString,
+                                        final Predicate<fileDataQueryResult> sink) {
+        ChaincodeStub stub = ctx.getStub();
+        QueryResultsIterator<KeyValue> results = stub.getPrivateDataQueryResult("collectionFiles", queryString);
+        try {
+            for (KeyValue result: results) {
+                fileData cc = fileDataCodec.decode(result.getValue());
+                if (!sink.test(new fileDataQueryResult(result.getKey(), cc))) {
+                    break;
+                }
+            }
+        } finally {
+            closeIterator(results);
         }
-        fileDataQueryResult[] response = queryResults.toArray(new fileDataQueryResult[queryResults.size()]);
-        return response;
     }
 }
 
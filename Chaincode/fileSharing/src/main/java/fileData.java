@@ -1,3 +1,9 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.util.Objects;
 
 import org.hyperledger.fabric.contract.annotation.DataType;
@@ -35,6 +41,23 @@ public final class fileData {
     @Property()
     private final String access_level;
 
+    /**
+     * Typed copies of size, access_level and creation_date, derived on construction and
+     * stored with the record so that CouchDB selectors and the numeric indexes compare
+     * numbers. Null when the string does not parse.
+     */
+    @Property()
+    private final Long size_bytes;
+
+    @Property()
+    private final Integer access_level_number;
+
+    /**
+     * creation_date in milliseconds since the epoch. Dates without a zone are UTC.
+     */
+    @Property()
+    private final Long creation_time;
+
     public String getName() {
         return name;
     }
@@ -71,6 +94,18 @@ public final class fileData {
         return access_level;
     }
 
+    public Long getSize_bytes() {
+        return size_bytes;
+    }
+
+    public Integer getAccess_level_number() {
+        return access_level_number;
+    }
+
+    public Long getCreation_time() {
+        return creation_time;
+    }
+
     public fileData(@JsonProperty("name") final String name, @JsonProperty("format") final String format,
                       @JsonProperty("size") final String size, @JsonProperty("hash") final String hash,
                     @JsonProperty("author") final String author, @JsonProperty("creation_date") final String creation_date,
@@ -86,6 +121,56 @@ public final class fileData {
         this.encryption_key = encryption_key;
         this.buckets = buckets;
         this.access_level = access_level;
+        this.size_bytes = parseLong(size);
+        Long level = parseLong(access_level);
+        this.access_level_number = level == null || level != level.intValue() ? null : level.intValue();
+        this.creation_time = parseTime(creation_date);
+    }
+
+    private static Long parseLong(final String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Accepts epoch milliseconds, an ISO-8601 instant or offset date time, or a local
+     * ISO-8601 date time or date.
+     */
+    private static Long parseTime(final String value) {
+        if (value == null) {
+            return null;
+        }
+        String text = value.trim();
+        Long millis = parseLong(text);
+        if (millis != null) {
+            return millis;
+        }
+        try {
+            return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // not an offset date time
+        }
+        try {
+            return Instant.parse(text).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // not an instant
+        }
+        try {
+            return LocalDateTime.parse(text).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // not a local date time
+        }
+        try {
+            return LocalDate.parse(text).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
     }
 
     @Override
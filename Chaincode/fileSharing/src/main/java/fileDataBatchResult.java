@@ -0,0 +1,77 @@
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * Outcome of one item of a batch transaction. Either record is set, or error holds
+ * the error code (NOT_FOUND, ALREADY_EXISTS, ...) and message describes it.
+ *
+ */
+@DataType()
+public final class fileDataBatchResult {
+    @Property()
+    private final String key;
+
+    @Property()
+    private final fileData record;
+
+    @Property()
+    private final String error;
+
+    @Property()
+    private final String message;
+
+    public fileDataBatchResult(@JsonProperty("Key") final String key, @JsonProperty("Record") final fileData record,
+                               @JsonProperty("Error") final String error, @JsonProperty("Message") final String message) {
+        this.key = key;
+        this.record = record;
+        this.error = error;
+        this.message = message;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public fileData getRecord() {
+        return record;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+
+        fileDataBatchResult other = (fileDataBatchResult) obj;
+
+        return Objects.equals(this.getKey(), other.getKey()) && Objects.equals(this.getRecord(), other.getRecord())
+                && Objects.equals(this.getError(), other.getError()) && Objects.equals(this.getMessage(), other.getMessage());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.getKey(), this.getRecord(), this.getError(), this.getMessage());
+    }
+
+    @Override
+    public String toString() {
+        return "{\"Key\":\"" + key + "\"" + "\"Record\":{\"" + record + "}\"" + "\"Error\":\"" + error + "\"" + "\"Message\":\"" + message + "\"}";
+    }
+
+}
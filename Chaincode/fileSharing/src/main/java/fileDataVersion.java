@@ -0,0 +1,92 @@
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * One change appended to a fileData by appendFileDataVersion or appendFileDataOwner.
+ * The fields of change that are null keep their value. writer and writer_access are the
+ * identity of the client that appended it; the change only applies if that client could
+ * update the fileData as resolved up to this version.
+ *
+ */
+@DataType()
+public final class fileDataVersion {
+    @Property()
+    private final String version;
+
+    @Property()
+    private final String writer;
+
+    @Property()
+    private final int writer_access;
+
+    /**
+     * Transaction timestamp in milliseconds since the epoch.
+     */
+    @Property()
+    private final long time;
+
+    @Property()
+    private final fileData change;
+
+    public fileDataVersion(@JsonProperty("version") final String version, @JsonProperty("writer") final String writer,
+                           @JsonProperty("writer_access") final int writer_access, @JsonProperty("time") final long time,
+                           @JsonProperty("change") final fileData change) {
+        this.version = version;
+        this.writer = writer;
+        this.writer_access = writer_access;
+        this.time = time;
+        this.change = change;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getWriter() {
+        return writer;
+    }
+
+    public int getWriter_access() {
+        return writer_access;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public fileData getChange() {
+        return change;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+
+        fileDataVersion other = (fileDataVersion) obj;
+
+        return Objects.equals(getVersion(), other.getVersion()) && Objects.equals(getWriter(), other.getWriter())
+                && getWriter_access() == other.getWriter_access() && getTime() == other.getTime()
+                && Objects.equals(getChange(), other.getChange());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getVersion(), getWriter(), getWriter_access(), getTime(), getChange());
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " [version=" + version
+                + ", writer=" + writer + ", writer_access=" + writer_access + ", time=" + time + ", change=" + change + "]";
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * A fileData split into chunks of chunk_size bytes, the last one possibly shorter.
+ * root is the Merkle root of the chunk hashes, see fileMerkleTree, and hash the hash of
+ * the fileData the manifest was registered for; the manifest no longer describes the
+ * file once that hash changes.
+ *
+ */
+@DataType()
+public final class fileManifest {
+    @Property()
+    private final String key;
+
+    @Property()
+    private final String hash;
+
+    @Property()
+    private final long chunk_size;
+
+    @Property()
+    private final String root;
+
+    @Property()
+    private final fileChunk[] chunks;
+
+    public fileManifest(@JsonProperty("key") final String key, @JsonProperty("hash") final String hash,
+                        @JsonProperty("chunk_size") final long chunk_size, @JsonProperty("root") final String root,
+                        @JsonProperty("chunks") final fileChunk[] chunks) {
+        this.key = key;
+        this.hash = hash;
+        this.chunk_size = chunk_size;
+        this.root = root;
+        this.chunks = chunks;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public long getChunk_size() {
+        return chunk_size;
+    }
+
+    public String getRoot() {
+        return root;
+    }
+
+    public fileChunk[] getChunks() {
+        return chunks;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+
+        fileManifest other = (fileManifest) obj;
+
+        return Objects.equals(getKey(), other.getKey()) && Objects.equals(getHash(), other.getHash())
+                && getChunk_size() == other.getChunk_size() && Objects.equals(getRoot(), other.getRoot())
+                && Arrays.equals(getChunks(), other.getChunks());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getKey(), getHash(), getChunk_size(), getRoot(), Arrays.hashCode(getChunks()));
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " [key=" + key + ", hash=" + hash
+                + ", chunk_size=" + chunk_size + ", root=" + root + ", chunks=" + Arrays.toString(chunks) + "]";
+    }
+}
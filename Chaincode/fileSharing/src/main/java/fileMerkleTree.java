@@ -0,0 +1,122 @@
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hyperledger.fabric.shim.ChaincodeException;
+
+/**
+ * Merkle tree of the chunk hashes of a fileManifest, built as the Merkle Tree Hash of
+ * RFC 6962: a leaf is SHA-256(0x00 || chunk hash), a node SHA-256(0x01 || left || right),
+ * and a list of n > 1 leaves splits after the largest power of two below n. The
+ * prefixes keep a leaf from being passed off as a node. Hashes are lower case hex.
+ *
+ */
+public final class fileMerkleTree {
+
+    private static final byte LEAF = 0x00;
+    private static final byte NODE = 0x01;
+
+    private fileMerkleTree() {
+    }
+
+    /**
+     * @param chunkHashes SHA-256 of each chunk, at least one
+     * @return the Merkle root
+     */
+    public static String root(final String[] chunkHashes) {
+        return toHex(subtree(leaves(chunkHashes), 0, chunkHashes.length));
+    }
+
+    /**
+     * @param chunkHashes SHA-256 of each chunk, at least one
+     * @param index of the chunk
+     * @return the hashes of the sibling subtrees of the chunk, leaf first
+     */
+    public static String[] path(final String[] chunkHashes, final int index) {
+        byte[][] leaves = leaves(chunkHashes);
+        List<String> path = new ArrayList<String>();
+        int start = 0;
+        int end = leaves.length;
+        List<byte[]> siblings = new ArrayList<byte[]>();
+        while (end - start > 1) {
+            int split = start + largestPowerOfTwoBelow(end - start);
+            if (index < split) {
+                siblings.add(subtree(leaves, split, end));
+                end = split;
+            } else {
+                siblings.add(subtree(leaves, start, split));
+                start = split;
+            }
+        }
+        for (int i = siblings.size() - 1; i >= 0; i--) {
+            path.add(toHex(siblings.get(i)));
+        }
+        return path.toArray(new String[path.size()]);
+    }
+
+    /**
+     * @return true if value is a SHA-256 in hex
+     */
+    public static boolean isHash(final String value) {
+        if (value == null || value.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[][] leaves(final String[] chunkHashes) {
+        byte[][] leaves = new byte[chunkHashes.length][];
+        for (int i = 0; i < chunkHashes.length; i++) {
+            leaves[i] = hash(LEAF, fromHex(chunkHashes[i]), null);
+        }
+        return leaves;
+    }
+
+    private static byte[] subtree(final byte[][] leaves, final int start, final int end) {
+        if (end - start == 1) {
+            return leaves[start];
+        }
+        int split = start + largestPowerOfTwoBelow(end - start);
+        return hash(NODE, subtree(leaves, start, split), subtree(leaves, split, end));
+    }
+
+    private static int largestPowerOfTwoBelow(final int n) {
+        return Integer.highestOneBit(n - 1);
+    }
+
+    private static byte[] hash(final byte prefix, final byte[] left, final byte[] right) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(prefix);
+            digest.update(left);
+            if (right != null) {
+                digest.update(right);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new ChaincodeException("SHA-256 is not available", e);
+        }
+    }
+
+    private static byte[] fromHex(final String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    static String toHex(final byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b: bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * The fields of a fileData shown in a file listing, without its hash, author,
+ * encryption key and buckets. Stored as the value of the author, name and access level
+ * index entries of the fileData, so summary listings do not read the records.
+ *
+ */
+@DataType()
+public final class fileSummary {
+    @Property()
+    private final String key;
+
+    @Property()
+    private final String name;
+
+    @Property()
+    private final String format;
+
+    @Property()
+    private final String size;
+
+    @Property()
+    private final String creation_date;
+
+    @Property()
+    private final String access_level;
+
+    public fileSummary(@JsonProperty("key") final String key, @JsonProperty("name") final String name,
+                       @JsonProperty("format") final String format, @JsonProperty("size") final String size,
+                       @JsonProperty("creation_date") final String creation_date,
+                       @JsonProperty("access_level") final String access_level) {
+        this.key = key;
+        this.name = name;
+        this.format = format;
+        this.size = size;
+        this.creation_date = creation_date;
+        this.access_level = access_level;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public String getSize() {
+        return size;
+    }
+
+    public String getCreation_date() {
+        return creation_date;
+    }
+
+    public String getAccess_level() {
+        return access_level;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+
+        fileSummary other = (fileSummary) obj;
+
+        return Objects.equals(getKey(), other.getKey()) && Objects.equals(getName(), other.getName())
+                && Objects.equals(getFormat(), other.getFormat()) && Objects.equals(getSize(), other.getSize())
+                && Objects.equals(getCreation_date(), other.getCreation_date())
+                && Objects.equals(getAccess_level(), other.getAccess_level());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getKey(), getName(), getFormat(), getSize(), getCreation_date(), getAccess_level());
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " [key=" + key + ", name="
+                + name + ", format=" + format + ", size=" + size + ", creation_date=" + creation_date
+                + ", access_level=" + access_level + "]";
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * One page of a fileSummary listing together with the bookmark for the next page.
+ * An empty bookmark means there are no more results.
+ *
+ */
+@DataType()
+public final class fileSummaryPage {
+    @Property()
+    private final fileSummary[] records;
+
+    @Property()
+    private final String bookmark;
+
+    public fileSummaryPage(@JsonProperty("Records") final fileSummary[] records, @JsonProperty("Bookmark") final String bookmark) {
+        this.records = records;
+        this.bookmark = bookmark;
+    }
+
+    public fileSummary[] getRecords() {
+        return records;
+    }
+
+    public String getBookmark() {
+        return bookmark;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+
+        fileSummaryPage other = (fileSummaryPage) obj;
+
+        return Arrays.equals(this.getRecords(), other.getRecords()) && Objects.equals(this.getBookmark(), other.getBookmark());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(Arrays.hashCode(this.getRecords()), this.getBookmark());
+    }
+
+    @Override
+    public String toString() {
+        return "{\"Records\":" + Arrays.toString(records) + ",\"Bookmark\":\"" + bookmark + "\"}";
+    }
+
+}
@@ -0,0 +1,44 @@
+import org.hyperledger.fabric.contract.annotation.Serializer;
+
+/**
+ * Writes the results of fileContract with their generated codecs.
+ */
+@Serializer(target = Serializer.TARGET.TRANSACTION)
+public final class fileTransactionSerializer extends CodecTransactionSerializer {
+
+    @Override
+    protected boolean write(final StringBuilder out, final Object value) {
+        if (value instanceof fileData) {
+            fileDataJsonCodec.write(out, (fileData) value);
+        } else if (value instanceof fileDataQueryPage) {
+            fileDataQueryPageJsonCodec.write(out, (fileDataQueryPage) value);
+        } else if (value instanceof fileDataQueryResult[]) {
+            fileDataQueryResultJsonCodec.writeArray(out, (fileDataQueryResult[]) value);
+        } else if (value instanceof fileDataBatchResult[]) {
+            fileDataBatchResultJsonCodec.writeArray(out, (fileDataBatchResult[]) value);
+        } else if (value instanceof fileSummary[]) {
+            fileSummaryJsonCodec.writeArray(out, (fileSummary[]) value);
+        } else if (value instanceof fileSummaryPage) {
+            fileSummaryPageJsonCodec.write(out, (fileSummaryPage) value);
+        } else if (value instanceof fileDataVersion) {
+            fileDataVersionJsonCodec.write(out, (fileDataVersion) value);
+        } else if (value instanceof fileDataVersion[]) {
+            fileDataVersionJsonCodec.writeArray(out, (fileDataVersion[]) value);
+        } else if (value instanceof fileChangePage) {
+            fileChangePageJsonCodec.write(out, (fileChangePage) value);
+        } else if (value instanceof fileAccessPlan) {
+            fileAccessPlanJsonCodec.write(out, (fileAccessPlan) value);
+        } else if (value instanceof fileUsage) {
+            fileUsageJsonCodec.write(out, (fileUsage) value);
+        } else if (value instanceof fileManifest) {
+            fileManifestJsonCodec.write(out, (fileManifest) value);
+        } else if (value instanceof fileContent) {
+            fileContentJsonCodec.write(out, (fileContent) value);
+        } else if (value instanceof fileChunkProof) {
+            fileChunkProofJsonCodec.write(out, (fileChunkProof) value);
+        } else {
+            return false;
+        }
+        return true;
+    }
+}
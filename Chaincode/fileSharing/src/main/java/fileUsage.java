@@ -0,0 +1,77 @@
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * Number of files and their total size in bytes for an author or a bucket. Also the
+ * form of the usage deltas and of author quotas.
+ *
+ */
+@DataType()
+public final class fileUsage {
+    @Property()
+    private final String scope;
+
+    @Property()
+    private final String subject;
+
+    @Property()
+    private final long files;
+
+    @Property()
+    private final long bytes;
+
+    public fileUsage(@JsonProperty("scope") final String scope, @JsonProperty("subject") final String subject,
+                     @JsonProperty("files") final long files, @JsonProperty("bytes") final long bytes) {
+        this.scope = scope;
+        this.subject = subject;
+        this.files = files;
+        this.bytes = bytes;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+
+        fileUsage other = (fileUsage) obj;
+
+        return Objects.equals(getScope(), other.getScope()) && Objects.equals(getSubject(), other.getSubject())
+                && getFiles() == other.getFiles() && getBytes() == other.getBytes();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getScope(), getSubject(), getFiles(), getBytes());
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " [scope=" + scope + ", subject="
+                + subject + ", files=" + files + ", bytes=" + bytes + "]";
+    }
+}
@@ -0,0 +1,269 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.hyperledger.fabric.shim.ChaincodeStub;
+
+/**
+ * Structured log of the contracts, one JSON object per line on standard output:
+ * {"time":ms,"level":"WARN","event":"NOT_FOUND","tx":txId,"channel":c,"function":f,"message":m}.
+ *
+ * Records are queued and written by a background thread, so a transaction never waits
+ * on console output; when the queue is full the record is dropped and counted, and the
+ * count is logged as a LOG_DROPPED event. Records still queued when the process exits
+ * are lost. Each event is limited to CHAINCODE_LOG_RATE records per second (20), so a
+ * storm of denials costs a counter increment per transaction; the next record logged
+ * for the event carries the number suppressed meanwhile. The transaction fields are
+ * those of the stub bound by createContext, and are read only for records queued.
+ *
+ * CHAINCODE_LOG_LEVEL (INFO), CHAINCODE_LOG_RATE and CHAINCODE_LOG_QUEUE (4096) are read
+ * from the environment, or from system properties of the same name. A value that does
+ * not parse, a negative rate or a queue size below 1 is replaced by the default and
+ * reported as a LOG_SETTING event, so a bad setting never fails a transaction.
+ */
+public final class ChaincodeLog {
+
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR
+    }
+
+    private static final List<String> INVALID_SETTINGS = new ArrayList<String>();
+    private static final Level LEVEL = levelSetting("CHAINCODE_LOG_LEVEL", Level.INFO);
+    private static final int RATE = intSetting("CHAINCODE_LOG_RATE", 20, 0);
+    private static final int BATCH = 256;
+    private static final BlockingQueue<Record> QUEUE = new ArrayBlockingQueue<Record>(
+            intSetting("CHAINCODE_LOG_QUEUE", 4096, 1));
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final ConcurrentMap<String, Limiter> LIMITERS = new ConcurrentHashMap<String, Limiter>();
+    private static final ThreadLocal<ChaincodeStub> TRANSACTION = new ThreadLocal<ChaincodeStub>();
+
+    static {
+        Thread writer = new Thread(ChaincodeLog::write, "chaincode-log");
+        writer.setDaemon(true);
+        writer.start();
+        for (String message: INVALID_SETTINGS) {
+            warn("LOG_SETTING", message);
+        }
+    }
+
+    private ChaincodeLog() {
+    }
+
+    /**
+     * Binds the transaction running on this thread, for the correlation fields.
+     * @param stub the stub given to createContext
+     */
+    public static void bind(final ChaincodeStub stub) {
+        TRANSACTION.set(stub);
+    }
+
+    /**
+     * Unbinds the transaction running on this thread. Called last in afterTransaction;
+     * a transaction that throws stays bound until the next one on the thread.
+     */
+    public static void unbind() {
+        TRANSACTION.remove();
+    }
+
+    public static boolean isEnabled(final Level level) {
+        return level.compareTo(LEVEL) >= 0;
+    }
+
+    /**
+     * @param message built only if DEBUG is enabled and the event is not suppressed
+     */
+    public static void debug(final String event, final Supplier<String> message) {
+        log(Level.DEBUG, event, message);
+    }
+
+    public static void info(final String event, final String message) {
+        log(Level.INFO, event, message);
+    }
+
+    /**
+     * Logs a rejected transaction, typically the code and message of a ChaincodeException.
+     */
+    public static void warn(final String event, final String message) {
+        log(Level.WARN, event, message);
+    }
+
+    public static void error(final String event, final String message) {
+        log(Level.ERROR, event, message);
+    }
+
+    public static void log(final Level level, final String event, final String message) {
+        if (isEnabled(level)) {
+            enqueue(level, event, message, null);
+        }
+    }
+
+    public static void log(final Level level, final String event, final Supplier<String> message) {
+        if (isEnabled(level)) {
+            enqueue(level, event, null, message);
+        }
+    }
+
+    /**
+     * @return records dropped because the queue was full
+     */
+    public static long getDropped() {
+        return DROPPED.get();
+    }
+
+    private static void enqueue(final Level level, final String event, final String message,
+                                final Supplier<String> lazy) {
+        long now = System.currentTimeMillis();
+        long suppressed = LIMITERS.computeIfAbsent(event, name -> new Limiter()).acquire(now / 1000L);
+        if (suppressed < 0) {
+            return;
+        }
+        ChaincodeStub stub = TRANSACTION.get();
+        Record record = new Record(now, level, event, lazy == null ? message : lazy.get(), suppressed,
+                stub == null ? null : stub.getTxId(), stub == null ? null : stub.getChannelId(),
+                stub == null ? null : stub.getFunction());
+        if (!QUEUE.offer(record)) {
+            DROPPED.incrementAndGet();
+        }
+    }
+
+    private static void write() {
+        PrintStream out = System.out;
+        List<Record> batch = new ArrayList<Record>(BATCH);
+        StringBuilder text = new StringBuilder(8192);
+        long reported = 0;
+        while (true) {
+            try {
+                batch.add(QUEUE.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            QUEUE.drainTo(batch, BATCH - 1);
+            for (Record record: batch) {
+                record.write(text);
+            }
+            long dropped = DROPPED.get();
+            if (dropped != reported) {
+                new Record(System.currentTimeMillis(), Level.WARN, "LOG_DROPPED",
+                        (dropped - reported) + " records dropped, the log queue was full", 0, null, null, null)
+                        .write(text);
+                reported = dropped;
+            }
+            out.print(text);
+            out.flush();
+            text.setLength(0);
+            batch.clear();
+        }
+    }
+
+    private static String setting(final String name, final String defaultValue) {
+        String value = System.getProperty(name, System.getenv(name));
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    private static Level levelSetting(final String name, final Level defaultValue) {
+        String value = setting(name, defaultValue.name());
+        try {
+            return Level.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            INVALID_SETTINGS.add("Invalid " + name + " " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return the setting, or defaultValue when it is not a number of at least min
+     */
+    private static int intSetting(final String name, final int defaultValue, final int min) {
+        String value = setting(name, String.valueOf(defaultValue));
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= min) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        INVALID_SETTINGS.add("Invalid " + name + " " + value + ", using " + defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * Records allowed for one event in the current second.
+     */
+    private static final class Limiter {
+        private long second;
+        private int count;
+        private long suppressed;
+
+        /**
+         * @return -1 if the record is suppressed, otherwise the records suppressed since
+         * the last one allowed
+         */
+        private synchronized long acquire(final long now) {
+            if (now != second) {
+                second = now;
+                count = 0;
+            }
+            if (count >= RATE) {
+                suppressed++;
+                return -1;
+            }
+            count++;
+            long previous = suppressed;
+            suppressed = 0;
+            return previous;
+        }
+    }
+
+    private static final class Record {
+        private final long time;
+        private final Level level;
+        private final String event;
+        private final String message;
+        private final long suppressed;
+        private final String txId;
+        private final String channel;
+        private final String function;
+
+        private Record(final long time, final Level level, final String event, final String message,
+                       final long suppressed, final String txId, final String channel, final String function) {
+            this.time = time;
+            this.level = level;
+            this.event = event;
+            this.message = message;
+            this.suppressed = suppressed;
+            this.txId = txId;
+            this.channel = channel;
+            this.function = function;
+        }
+
+        private void write(final StringBuilder out) {
+            out.append("{\"time\":").append(time).append(",\"level\":\"").append(level).append("\",\"event\":");
+            JsonCodecWriter.writeString(out, event);
+            if (txId != null) {
+                out.append(",\"tx\":");
+                JsonCodecWriter.writeString(out, txId);
+                out.append(",\"channel\":");
+                JsonCodecWriter.writeString(out, channel);
+                out.append(",\"function\":");
+                JsonCodecWriter.writeString(out, function);
+            }
+            out.append(",\"message\":");
+            JsonCodecWriter.writeString(out, message);
+            if (suppressed > 0) {
+                out.append(",\"suppressed\":").append(suppressed);
+            }
+            out.append("}\n");
+        }
+    }
+}
@@ -0,0 +1,502 @@
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.Chaincode;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+
+/**
+ * Per-transaction metrics of the contracts, kept in memory by transaction name.
+ *
+ * start wraps the stub of a transaction in a proxy that counts and times every stub call
+ * and the bytes it reads and writes, including the rows of range, partial composite key,
+ * rich and history queries as they are iterated. finish, called from afterTransaction,
+ * adds the recording to the totals: latency histogram, time spent creating the context
+ * (which parses the client identity), time spent in stub calls, calls by stub method,
+ * bytes read and written, rows read and results returned. The remaining time is spent in
+ * the contract itself, decoding and encoding records included. The shim serializes the
+ * returned value after afterTransaction, so that is not measured.
+ *
+ * afterTransaction is not called when a transaction throws, so failed transactions are
+ * only counted as started. snapshot returns a copy of the totals, writePrometheus the
+ * Prometheus text format served by ChaincodeService. Setting CHAINCODE_METRICS=false
+ * (environment or system property) leaves the stub unwrapped.
+ */
+public final class TransactionMetrics {
+
+    /** Upper bounds of the latency buckets, in microseconds: 1, 2, 4 ... 2^25 (about 33 s). */
+    private static final int BUCKETS = 26;
+    /** Transaction names kept apart; the name comes from the client, so further names are totalled as other. */
+    private static final int MAX_TRANSACTIONS = 256;
+    private static final boolean ENABLED = !"false".equalsIgnoreCase(
+            System.getProperty("CHAINCODE_METRICS", System.getenv("CHAINCODE_METRICS")));
+    private static final ConcurrentMap<String, Totals> TOTALS = new ConcurrentHashMap<String, Totals>();
+
+    private TransactionMetrics() {
+    }
+
+    /**
+     * Creates the context of a transaction around a recording stub.
+     * @param stub the stub given to createContext
+     * @param factory creating the context from the stub
+     * @return the context
+     */
+    public static <C extends Context> C start(final ChaincodeStub stub, final Function<ChaincodeStub, C> factory) {
+        if (!ENABLED) {
+            return factory.apply(stub);
+        }
+        Recording recording = new Recording(stub);
+        totals(recording.transaction).started.increment();
+        ChaincodeStub recorded = (ChaincodeStub) Proxy.newProxyInstance(TransactionMetrics.class.getClassLoader(),
+                new Class<?>[] {ChaincodeStub.class}, recording);
+        C ctx = factory.apply(recorded);
+        recording.contextNanos = System.nanoTime() - recording.startNanos;
+        return ctx;
+    }
+
+    /**
+     * Adds the recording of a transaction to the totals. Called last in afterTransaction.
+     * @param ctx the context created by start
+     * @param result the value returned by the transaction
+     */
+    public static void finish(final Context ctx, final Object result) {
+        ChaincodeStub stub = ctx.getStub();
+        if (!Proxy.isProxyClass(stub.getClass()) || !(Proxy.getInvocationHandler(stub) instanceof Recording)) {
+            return;
+        }
+        Recording recording = (Recording) Proxy.getInvocationHandler(stub);
+        long micros = (System.nanoTime() - recording.startNanos) / 1000L;
+        Totals totals = totals(recording.transaction);
+        totals.latency.incrementAndGet(bucket(micros));
+        totals.count.increment();
+        totals.micros.add(micros);
+        totals.maxMicros.accumulate(micros);
+        totals.contextMicros.add(recording.contextNanos / 1000L);
+        totals.stubMicros.add(recording.stubNanos / 1000L);
+        for (Map.Entry<String, long[]> call: recording.calls.entrySet()) {
+            totals.calls.computeIfAbsent(call.getKey(), name -> new LongAdder()).add(call.getValue()[0]);
+        }
+        totals.bytesRead.add(recording.bytesRead);
+        totals.bytesWritten.add(recording.bytesWritten);
+        totals.rows.add(recording.rows);
+        totals.maxRows.accumulate(recording.rows);
+        totals.results.add(resultSize(result));
+    }
+
+    /**
+     * @return a copy of the totals by transaction name
+     */
+    public static Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> snapshot = new TreeMap<String, Snapshot>();
+        for (Map.Entry<String, Totals> entry: TOTALS.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Clears the totals.
+     */
+    public static void reset() {
+        TOTALS.clear();
+    }
+
+    /**
+     * Writes the totals in the Prometheus text format.
+     * @param out receiving the text
+     */
+    public static void writePrometheus(final StringBuilder out) {
+        Map<String, Snapshot> snapshot = snapshot();
+        out.append("# TYPE chaincode_transaction_duration_seconds histogram\n");
+        for (Snapshot s: snapshot.values()) {
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulative += s.buckets[i];
+                out.append("chaincode_transaction_duration_seconds_bucket{transaction=\"").append(s.transaction)
+                        .append("\",le=\"").append((1L << i) / 1e6).append("\"} ").append(cumulative).append('\n');
+            }
+            out.append("chaincode_transaction_duration_seconds_bucket{transaction=\"").append(s.transaction)
+                    .append("\",le=\"+Inf\"} ").append(s.count).append('\n');
+            sample(out, "chaincode_transaction_duration_seconds_sum", s.transaction, s.micros / 1e6);
+            sample(out, "chaincode_transaction_duration_seconds_count", s.transaction, s.count);
+        }
+        counter(out, snapshot, "chaincode_transactions_started_total", s -> s.started);
+        counter(out, snapshot, "chaincode_transaction_context_seconds_total", s -> s.contextMicros / 1e6);
+        counter(out, snapshot, "chaincode_transaction_stub_seconds_total", s -> s.stubMicros / 1e6);
+        counter(out, snapshot, "chaincode_transaction_read_bytes_total", s -> s.bytesRead);
+        counter(out, snapshot, "chaincode_transaction_written_bytes_total", s -> s.bytesWritten);
+        counter(out, snapshot, "chaincode_transaction_rows_total", s -> s.rows);
+        counter(out, snapshot, "chaincode_transaction_results_total", s -> s.results);
+        out.append("# TYPE chaincode_transaction_max_rows gauge\n");
+        for (Snapshot s: snapshot.values()) {
+            sample(out, "chaincode_transaction_max_rows", s.transaction, s.maxRows);
+        }
+        out.append("# TYPE chaincode_stub_calls_total counter\n");
+        for (Snapshot s: snapshot.values()) {
+            for (Map.Entry<String, Long> call: s.calls.entrySet()) {
+                out.append("chaincode_stub_calls_total{transaction=\"").append(s.transaction).append("\",call=\"")
+                        .append(call.getKey()).append("\"} ").append(call.getValue()).append('\n');
+            }
+        }
+    }
+
+    private static void counter(final StringBuilder out, final Map<String, Snapshot> snapshot, final String name,
+                                final Function<Snapshot, Number> value) {
+        out.append("# TYPE ").append(name).append(" counter\n");
+        for (Snapshot s: snapshot.values()) {
+            sample(out, name, s.transaction, value.apply(s));
+        }
+    }
+
+    private static void sample(final StringBuilder out, final String name, final String transaction,
+                               final Number value) {
+        out.append(name).append("{transaction=\"").append(transaction).append("\"} ").append(value).append('\n');
+    }
+
+    private static Totals totals(final String transaction) {
+        Totals totals = TOTALS.get(transaction);
+        if (totals != null) {
+            return totals;
+        }
+        return TOTALS.computeIfAbsent(TOTALS.size() < MAX_TRANSACTIONS ? transaction : "other", name -> new Totals());
+    }
+
+    private static int bucket(final long micros) {
+        int bucket = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+        return Math.min(bucket, BUCKETS);
+    }
+
+    private static long resultSize(final Object result) {
+        if (result == null) {
+            return 0;
+        }
+        if (result.getClass().isArray()) {
+            return Array.getLength(result);
+        }
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        return 1;
+    }
+
+    private static long length(final Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        if (value instanceof String) {
+            String s = (String) value;
+            long length = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                length += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+            }
+            return length;
+        }
+        if (value instanceof KeyValue) {
+            return length(((KeyValue) value).getValue());
+        }
+        if (value instanceof KeyModification) {
+            return length(((KeyModification) value).getValue());
+        }
+        if (value instanceof Chaincode.Response) {
+            return length(((Chaincode.Response) value).getPayload());
+        }
+        return 0;
+    }
+
+    private static Object invoke(final Object target, final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Totals of one transaction name.
+     */
+    private static final class Totals {
+        private final AtomicLongArray latency = new AtomicLongArray(BUCKETS + 1);
+        private final LongAdder started = new LongAdder();
+        private final LongAdder count = new LongAdder();
+        private final LongAdder micros = new LongAdder();
+        private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+        private final LongAdder contextMicros = new LongAdder();
+        private final LongAdder stubMicros = new LongAdder();
+        private final ConcurrentMap<String, LongAdder> calls = new ConcurrentHashMap<String, LongAdder>();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAccumulator maxRows = new LongAccumulator(Math::max, 0);
+        private final LongAdder results = new LongAdder();
+
+        private Snapshot snapshot(final String transaction) {
+            long[] buckets = new long[BUCKETS + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = latency.get(i);
+            }
+            Map<String, Long> callCounts = new TreeMap<String, Long>();
+            for (Map.Entry<String, LongAdder> call: calls.entrySet()) {
+                callCounts.put(call.getKey(), call.getValue().sum());
+            }
+            return new Snapshot(transaction, buckets, started.sum(), count.sum(), micros.sum(), maxMicros.get(),
+                    contextMicros.sum(), stubMicros.sum(), Collections.unmodifiableMap(callCounts), bytesRead.sum(),
+                    bytesWritten.sum(), rows.sum(), maxRows.get(), results.sum());
+        }
+    }
+
+    /**
+     * Totals of one transaction name at the time of snapshot. Times are in microseconds.
+     */
+    public static final class Snapshot {
+        private final String transaction;
+        private final long[] buckets;
+        private final long started;
+        private final long count;
+        private final long micros;
+        private final long maxMicros;
+        private final long contextMicros;
+        private final long stubMicros;
+        private final Map<String, Long> calls;
+        private final long bytesRead;
+        private final long bytesWritten;
+        private final long rows;
+        private final long maxRows;
+        private final long results;
+
+        private Snapshot(final String transaction, final long[] buckets, final long started, final long count,
+                         final long micros, final long maxMicros, final long contextMicros, final long stubMicros,
+                         final Map<String, Long> calls, final long bytesRead, final long bytesWritten, final long rows,
+                         final long maxRows, final long results) {
+            this.transaction = transaction;
+            this.buckets = buckets;
+            this.started = started;
+            this.count = count;
+            this.micros = micros;
+            this.maxMicros = maxMicros;
+            this.contextMicros = contextMicros;
+            this.stubMicros = stubMicros;
+            this.calls = calls;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+            this.rows = rows;
+            this.maxRows = maxRows;
+            this.results = results;
+        }
+
+        public String getTransaction() {
+            return transaction;
+        }
+
+        /**
+         * @return transactions started, completed or not
+         */
+        public long getStarted() {
+            return started;
+        }
+
+        /**
+         * @return transactions completed
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getMicros() {
+            return micros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        /**
+         * @param quantile between 0 and 1
+         * @return upper bound of the latency bucket holding the quantile
+         */
+        public long getPercentileMicros(final double quantile) {
+            long rank = (long) Math.ceil(quantile * count);
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulative += buckets[i];
+                if (cumulative >= rank) {
+                    return Math.min(1L << i, maxMicros);
+                }
+            }
+            return maxMicros;
+        }
+
+        public long getContextMicros() {
+            return contextMicros;
+        }
+
+        public long getStubMicros() {
+            return stubMicros;
+        }
+
+        /**
+         * @return stub calls by stub method name
+         */
+        public Map<String, Long> getCalls() {
+            return calls;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * @return rows read from query iterators
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        public long getMaxRows() {
+            return maxRows;
+        }
+
+        /**
+         * @return items returned, the length of array and collection results
+         */
+        public long getResults() {
+            return results;
+        }
+
+        @Override
+        public String toString() {
+            return transaction + ": count=" + count + ", started=" + started + ", mean="
+                    + (count == 0 ? 0 : micros / count) + "us, p50=" + getPercentileMicros(0.5) + "us, p99="
+                    + getPercentileMicros(0.99) + "us, max=" + maxMicros + "us, context=" + contextMicros
+                    + "us, stub=" + stubMicros + "us, calls=" + calls + ", read=" + bytesRead + "B, written="
+                    + bytesWritten + "B, rows=" + rows + ", results=" + results;
+        }
+    }
+
+    /**
+     * Stub proxy of one transaction. A transaction runs on one thread, so the fields are
+     * not shared.
+     */
+    private static final class Recording implements InvocationHandler {
+        private final ChaincodeStub stub;
+        private final String transaction;
+        private final long startNanos = System.nanoTime();
+        private final Map<String, long[]> calls = new HashMap<String, long[]>();
+        private long contextNanos;
+        private long stubNanos;
+        private long bytesRead;
+        private long bytesWritten;
+        private long rows;
+
+        private Recording(final ChaincodeStub stub) {
+            this.stub = stub;
+            String function = stub.getFunction();
+            this.transaction = function == null ? "unknown"
+                    : function.substring(function.lastIndexOf(':') + 1).replaceAll("[^A-Za-z0-9_]", "_");
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                return name.equals("equals") ? proxy == args[0] : TransactionMetrics.invoke(stub, method, args);
+            }
+            calls.computeIfAbsent(name, call -> new long[1])[0]++;
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = TransactionMetrics.invoke(stub, method, args);
+            } finally {
+                stubNanos += System.nanoTime() - start;
+            }
+            if ((name.startsWith("put") || name.equals("setEvent")) && args != null) {
+                bytesWritten += length(args[args.length - 1]);
+            } else if (result instanceof QueryResultsIterator) {
+                return Proxy.newProxyInstance(TransactionMetrics.class.getClassLoader(),
+                        new Class<?>[] {method.getReturnType()}, new Rows(result));
+            } else if (name.startsWith("getState") || name.startsWith("getPrivateData")
+                    || name.equals("getStringState") || name.startsWith("invokeChaincode")) {
+                bytesRead += length(result);
+            }
+            return result;
+        }
+
+        /**
+         * Query iterator proxy counting the rows and bytes iterated. Fetching rows goes to
+         * the peer page by page, so the time spent in the iterator is stub time.
+         */
+        private final class Rows implements InvocationHandler {
+            private final Object results;
+
+            private Rows(final Object results) {
+                this.results = results;
+            }
+
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                if (method.getName().equals("equals") && method.getDeclaringClass() == Object.class) {
+                    return proxy == args[0];
+                }
+                long start = System.nanoTime();
+                try {
+                    Object result = TransactionMetrics.invoke(results, method, args);
+                    if (result instanceof Iterator) {
+                        return rows((Iterator<?>) result);
+                    }
+                    return result;
+                } finally {
+                    stubNanos += System.nanoTime() - start;
+                }
+            }
+
+            private Iterator<Object> rows(final Iterator<?> iterator) {
+                return new Iterator<Object>() {
+                    @Override
+                    public boolean hasNext() {
+                        long start = System.nanoTime();
+                        try {
+                            return iterator.hasNext();
+                        } finally {
+                            stubNanos += System.nanoTime() - start;
+                        }
+                    }
+
+                    @Override
+                    public Object next() {
+                        long start = System.nanoTime();
+                        try {
+                            Object row = iterator.next();
+                            rows++;
+                            bytesRead += length(row);
+                            return row;
+                        } finally {
+                            stubNanos += System.nanoTime() - start;
+                        }
+                    }
+                };
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import java.nio.charset.StandardCharsets;
+
+import org.hyperledger.fabric.contract.ContractRuntimeException;
+import org.hyperledger.fabric.contract.execution.SerializerInterface;
+import org.hyperledger.fabric.contract.metadata.TypeSchema;
+
+/**
+ * Transaction serializer of the contracts: results are written with the generated
+ * {@code <Type>JsonCodec} classes instead of the reflective JSONObject conversion of the
+ * runtime's default serializer, and arguments, which are all strings and numbers, are
+ * parsed directly.
+ *
+ * Strings, numbers and booleans are converted as the default serializer does, so those
+ * results and every argument keep their encoding. Objects and arrays are written the way
+ * the codecs store them: properties in alphabetical order, nulls included. Each contract
+ * registers a subclass naming its own result types in write, and selects it with
+ * {@code @Contract(transactionSerializer = ...)}.
+ */
+public abstract class CodecTransactionSerializer implements SerializerInterface {
+
+    @Override
+    public byte[] toBuffer(final Object value, final TypeSchema ts) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof Character) {
+            return value.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        StringBuilder out = new StringBuilder(256);
+        if (value instanceof String[]) {
+            JsonCodecWriter.writeStringArray(out, (String[]) value);
+        } else if (!write(out, value)) {
+            throw new IllegalArgumentException("No JSON codec for " + value.getClass().getName());
+        }
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Object fromBuffer(final byte[] buffer, final TypeSchema ts) {
+        try {
+            return convert(new String(buffer, StandardCharsets.UTF_8), ts);
+        } catch (RuntimeException e) {
+            throw new ContractRuntimeException(e);
+        }
+    }
+
+    private static Object convert(final String text, final TypeSchema ts) {
+        String format = ts.getFormat() == null ? "" : ts.getFormat();
+        switch (ts.getType() == null ? "" : ts.getType()) {
+            case "string":
+                return "uint16".equals(format) ? Character.valueOf(text.charAt(0)) : text;
+            case "integer":
+                switch (format) {
+                    case "int8":
+                        return Byte.valueOf(text);
+                    case "int16":
+                        return Short.valueOf(text);
+                    case "int64":
+                        return Long.valueOf(text);
+                    default:
+                        return Integer.valueOf(text);
+                }
+            case "number":
+                return "float".equals(format) ? (Object) Float.valueOf(text) : (Object) Double.valueOf(text);
+            case "boolean":
+                return Boolean.valueOf(text);
+            default:
+                throw new IllegalArgumentException("Unsupported transaction argument type " + ts.getType());
+        }
+    }
+
+    /**
+     * Writes value with the codec of its class.
+     *
+     * @return false if the class has no codec here
+     */
+    protected abstract boolean write(StringBuilder out, Object value);
+}
@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.hyperledger.fabric.contract.ContractRouter;
+import org.hyperledger.fabric.shim.ChaincodeServer;
+import org.hyperledger.fabric.shim.ChaincodeServerProperties;
+import org.hyperledger.fabric.shim.NettyChaincodeServer;
+
+/**
+ * Runs the contracts on the classpath as an external chaincode service: a gRPC server the
+ * peer connects to, instead of a container the peer builds and launches. Settings are
+ * read from the environment, or from system properties of the same name:
+ *
+ * CHAINCODE_SERVER_ADDRESS, CORE_CHAINCODE_ID_NAME and the CORE_PEER_TLS_* and
+ * CORE_TLS_CLIENT_* variables are read by the shim, as for a launched chaincode.
+ *
+ * TP_CORE_POOL_SIZE, TP_MAX_POOL_SIZE, TP_QUEUE_SIZE and TP_KEEP_ALIVE_MS size the pool
+ * running transactions (shim defaults 5, 5, 5000 and 5000). A transaction holds its
+ * thread while it waits for the peer on every ledger call, so the pool size bounds the
+ * transactions in flight. The pool only grows past its core size when the queue is full,
+ * so raise TP_CORE_POOL_SIZE together with TP_MAX_POOL_SIZE.
+ *
+ * CHAINCODE_MAX_INBOUND_MESSAGE_SIZE and CHAINCODE_MAX_INBOUND_METADATA_SIZE, in bytes,
+ * CHAINCODE_KEEPALIVE_TIME_MINUTES, CHAINCODE_KEEPALIVE_TIMEOUT_SECONDS,
+ * CHAINCODE_PERMIT_KEEPALIVE_TIME_MINUTES, CHAINCODE_PERMIT_KEEPALIVE_WITHOUT_CALLS and
+ * CHAINCODE_MAX_CONNECTION_AGE_SECONDS configure the gRPC server.
+ *
+ * METRICS_ADDRESS, host:port, serves the TransactionMetrics of the contracts in the
+ * Prometheus text format at /metrics. Unset by default.
+ */
+public final class ChaincodeService {
+
+    private static final String[] POOL_SETTINGS = {
+            "TP_CORE_POOL_SIZE", "TP_MAX_POOL_SIZE", "TP_QUEUE_SIZE", "TP_KEEP_ALIVE_MS"
+    };
+
+    private ChaincodeService() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        ContractRouter router = new ContractRouter(args);
+        // the transaction pool is created from this configuration when the peer connects
+        Properties config = router.getChaincodeConfig();
+        for (String name: POOL_SETTINGS) {
+            String value = setting(name);
+            if (value != null) {
+                config.setProperty(name, String.valueOf(Long.parseLong(value)));
+            }
+        }
+        ChaincodeServerProperties properties = router.getChaincodeServerConfig();
+        properties.setMaxInboundMessageSize(setting("CHAINCODE_MAX_INBOUND_MESSAGE_SIZE",
+                properties.getMaxInboundMessageSize()));
+        properties.setMaxInboundMetadataSize(setting("CHAINCODE_MAX_INBOUND_METADATA_SIZE",
+                properties.getMaxInboundMetadataSize()));
+        properties.setKeepAliveTimeMinutes(setting("CHAINCODE_KEEPALIVE_TIME_MINUTES",
+                properties.getKeepAliveTimeMinutes()));
+        properties.setKeepAliveTimeoutSeconds(setting("CHAINCODE_KEEPALIVE_TIMEOUT_SECONDS",
+                properties.getKeepAliveTimeoutSeconds()));
+        properties.setPermitKeepAliveTimeMinutes(setting("CHAINCODE_PERMIT_KEEPALIVE_TIME_MINUTES",
+                properties.getPermitKeepAliveTimeMinutes()));
+        properties.setMaxConnectionAgeSeconds(setting("CHAINCODE_MAX_CONNECTION_AGE_SECONDS",
+                properties.getMaxConnectionAgeSeconds()));
+        String withoutCalls = setting("CHAINCODE_PERMIT_KEEPALIVE_WITHOUT_CALLS");
+        if (withoutCalls != null) {
+            properties.setPermitKeepAliveWithoutCalls(Boolean.parseBoolean(withoutCalls));
+        }
+        properties.validate();
+        String metricsAddress = setting("METRICS_ADDRESS");
+        if (metricsAddress != null) {
+            startMetrics(metricsAddress);
+        }
+        ChaincodeServer server = new NettyChaincodeServer(router, properties);
+        router.startRouterWithChaincodeServer(server);
+    }
+
+    private static void startMetrics(final String address) throws IOException {
+        int separator = address.lastIndexOf(':');
+        HttpServer server = HttpServer.create(new InetSocketAddress(address.substring(0, separator),
+                Integer.parseInt(address.substring(separator + 1))), 0);
+        server.createContext("/metrics", ChaincodeService::writeMetrics);
+        server.start();
+    }
+
+    private static void writeMetrics(final HttpExchange exchange) throws IOException {
+        StringBuilder out = new StringBuilder(4096);
+        TransactionMetrics.writePrometheus(out);
+        byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(body);
+        }
+    }
+
+    private static int setting(final String name, final int defaultValue) {
+        String value = setting(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static String setting(final String name) {
+        String value = System.getProperty(name, System.getenv(name));
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+}
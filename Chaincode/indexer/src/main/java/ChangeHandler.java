@@ -0,0 +1,16 @@
+import java.util.Map;
+
+/**
+ * Receives the fileChanges events of fileContract in ledger order.
+ *
+ */
+public interface ChangeHandler {
+
+    /**
+     * @param block of the transaction that emitted the event
+     * @param batch the event
+     * @param records the fileData of the changed keys as read after the event, by key;
+     * keys deleted since are missing
+     */
+    void accept(long block, fileChangeBatch batch, Map<String, fileData> records) throws Exception;
+}
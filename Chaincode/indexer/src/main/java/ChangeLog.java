@@ -0,0 +1,149 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * File of fileChanges events with the records read for them, one JSON object per line:
+ * {"block":n,"batch":{fileChangeBatch},"records":[{"key":k,"record":{fileData}}]}.
+ * The indexer can append the events it applies, and rebuild an index from the file
+ * without a peer. The encryption key and buckets of the records are not written.
+ *
+ */
+public final class ChangeLog implements ChangeHandler, AutoCloseable {
+
+    private final BufferedWriter out;
+
+    /**
+     * Opens the log for appending.
+     * @param path of the log, created if missing
+     */
+    public ChangeLog(final Path path) throws IOException {
+        out = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void accept(final long block, final fileChangeBatch batch, final Map<String, fileData> records)
+            throws IOException {
+        StringBuilder line = new StringBuilder(256);
+        line.append("{\"block\":").append(block).append(",\"batch\":");
+        fileChangeBatchJsonCodec.write(line, batch);
+        line.append(",\"records\":[");
+        boolean first = true;
+        for (Map.Entry<String, fileData> entry: records.entrySet()) {
+            fileData fd = entry.getValue();
+            if (!first) {
+                line.append(',');
+            }
+            first = false;
+            line.append("{\"key\":");
+            JsonCodecWriter.writeString(line, entry.getKey());
+            line.append(",\"record\":");
+            fileDataJsonCodec.write(line, new fileData(fd.getName(), fd.getFormat(), fd.getSize(), fd.getHash(),
+                    fd.getAuthor(), fd.getCreation_date(), null, null, fd.getAccess_level()));
+            line.append('}');
+        }
+        line.append("]}");
+        out.write(line.toString());
+        out.newLine();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Passes the events of a log to a handler, skipping those up to and including the
+     * given checkpoint.
+     * @param path of the log
+     * @param block of the checkpoint, -1 to replay everything
+     * @param transactionId of the checkpoint
+     * @param handler receiving the events
+     * @return the number of events passed
+     */
+    public static long replay(final Path path, final long block, final String transactionId,
+                              final ChangeHandler handler) throws Exception {
+        boolean skipping = block >= 0;
+        long events = 0;
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                JsonCodecReader reader = new JsonCodecReader(line);
+                long eventBlock = -1;
+                fileChangeBatch batch = null;
+                Map<String, fileData> records = new LinkedHashMap<String, fileData>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("block")) {
+                        eventBlock = reader.nextLong();
+                    } else if (name.equals("batch")) {
+                        batch = fileChangeBatchJsonCodec.read(reader);
+                    } else if (name.equals("records")) {
+                        readRecords(reader, records);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                reader.end();
+                if (skipping) {
+                    // events of the checkpoint block after the checkpoint transaction are still to apply
+                    if (eventBlock < block) {
+                        continue;
+                    }
+                    skipping = false;
+                    if (eventBlock == block) {
+                        skipping = !batch.getTx_id().equals(transactionId);
+                        continue;
+                    }
+                }
+                handler.accept(eventBlock, batch, records);
+                events++;
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Reads an array of {key, record} objects into a map. Both the "key"/"record" names
+     * of the contract responses and the "Key"/"Record" names of fileDataBatchResult are
+     * accepted; items without a record are left out.
+     * @param reader positioned on the array
+     * @param records receiving the records by key
+     */
+    public static void readRecords(final JsonCodecReader reader, final Map<String, fileData> records) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String key = null;
+            fileData record = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equalsIgnoreCase("key")) {
+                    key = reader.nextString();
+                } else if (name.equalsIgnoreCase("record")) {
+                    record = fileDataJsonCodec.read(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (key != null && record != null) {
+                records.put(key, record);
+            }
+        }
+        reader.endArray();
+    }
+}
@@ -0,0 +1,198 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Embedded H2 index of the fileData metadata in collectionFiles, kept up to date from the
+ * fileChanges events of fileContract. Only the listing fields, author and access level
+ * are stored; the encryption key and buckets stay on the ledger, which remains the
+ * source of truth.
+ *
+ * Every event is applied in one database transaction together with the checkpoint, the
+ * block number and transaction id of the event, so after a restart the indexer resumes
+ * right after the last event applied. Applying an event writes the record as read after
+ * the event, so replaying an event again is harmless.
+ *
+ */
+public final class FileIndexStore implements AutoCloseable {
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS files (file_key VARCHAR PRIMARY KEY, name VARCHAR, name_lower VARCHAR,"
+                    + " format VARCHAR, size VARCHAR, size_bytes BIGINT, creation_date VARCHAR, creation_time BIGINT,"
+                    + " author VARCHAR, access_level VARCHAR, access_level_number INT, record_hash VARCHAR)",
+            "CREATE INDEX IF NOT EXISTS files_name ON files (name_lower)",
+            "CREATE INDEX IF NOT EXISTS files_format ON files (format, creation_time)",
+            "CREATE INDEX IF NOT EXISTS files_author ON files (author, creation_time)",
+            "CREATE INDEX IF NOT EXISTS files_created ON files (creation_time)",
+            "CREATE TABLE IF NOT EXISTS checkpoint (id INT PRIMARY KEY, block BIGINT, tx_id VARCHAR)"
+    };
+
+    private static final String MERGE_FILE = "MERGE INTO files KEY (file_key) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String DELETE_FILE = "DELETE FROM files WHERE file_key = ?";
+    private static final String MERGE_CHECKPOINT = "MERGE INTO checkpoint KEY (id) VALUES (1, ?, ?)";
+
+    private final Connection connection;
+    private long block = -1;
+    private String transactionId = "";
+
+    /**
+     * Opens or creates the index.
+     * @param path of the database, without the .mv.db extension
+     */
+    public FileIndexStore(final String path) throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:" + path);
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            for (String ddl: SCHEMA) {
+                statement.execute(ddl);
+            }
+            try (ResultSet rs = statement.executeQuery("SELECT block, tx_id FROM checkpoint WHERE id = 1")) {
+                if (rs.next()) {
+                    block = rs.getLong(1);
+                    transactionId = rs.getString(2);
+                }
+            }
+        }
+        connection.commit();
+    }
+
+    /**
+     * @return the block of the last event applied, -1 if none
+     */
+    public long getBlock() {
+        return block;
+    }
+
+    /**
+     * @return the transaction id of the last event applied, empty if none
+     */
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * Applies the changes of one transaction and moves the checkpoint past it.
+     * @param block of the transaction
+     * @param batch the fileChanges event of the transaction
+     * @param records the fileData read after the event, by key; a key without a record
+     * has been deleted since and is removed
+     */
+    public void apply(final long block, final fileChangeBatch batch, final Map<String, fileData> records)
+            throws SQLException {
+        try (PreparedStatement merge = connection.prepareStatement(MERGE_FILE);
+             PreparedStatement delete = connection.prepareStatement(DELETE_FILE);
+             PreparedStatement checkpoint = connection.prepareStatement(MERGE_CHECKPOINT)) {
+            for (fileChange change: batch.getChanges()) {
+                fileData fd = "delete".equals(change.getOp()) ? null : records.get(change.getKey());
+                if (fd == null) {
+                    delete.setString(1, change.getKey());
+                    delete.executeUpdate();
+                    continue;
+                }
+                merge.setString(1, change.getKey());
+                merge.setString(2, fd.getName());
+                merge.setString(3, fd.getName() == null ? null : fd.getName().toLowerCase(Locale.ROOT));
+                merge.setString(4, fd.getFormat());
+                merge.setString(5, fd.getSize());
+                setLong(merge, 6, fd.getSize_bytes());
+                merge.setString(7, fd.getCreation_date());
+                setLong(merge, 8, fd.getCreation_time());
+                merge.setString(9, fd.getAuthor());
+                merge.setString(10, fd.getAccess_level());
+                if (fd.getAccess_level_number() == null) {
+                    merge.setNull(11, Types.INTEGER);
+                } else {
+                    merge.setInt(11, fd.getAccess_level_number());
+                }
+                merge.setString(12, change.getHash());
+                merge.executeUpdate();
+            }
+            checkpoint.setLong(1, block);
+            checkpoint.setString(2, batch.getTx_id());
+            checkpoint.executeUpdate();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+        this.block = block;
+        this.transactionId = batch.getTx_id();
+    }
+
+    /**
+     * Searches the index; null arguments match everything.
+     * @param namePrefix start of the name, case insensitive
+     * @param format of the files
+     * @param author id of the author, as in fileData.author
+     * @param from earliest creation time in milliseconds since the epoch (inclusive)
+     * @param to latest creation time in milliseconds since the epoch (inclusive)
+     * @param maxAccessLevel highest access level returned, the level of the caller
+     * @param limit maximum number of results
+     * @return the matching files, newest first
+     */
+    public List<fileSummary> search(final String namePrefix, final String format, final String author, final Long from,
+                                    final Long to, final int maxAccessLevel, final int limit) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT file_key, name, format, size, creation_date, access_level FROM files"
+                + " WHERE access_level_number <= ?");
+        List<Object> parameters = new ArrayList<Object>();
+        parameters.add(maxAccessLevel);
+        if (namePrefix != null) {
+            sql.append(" AND name_lower LIKE ? ESCAPE '\\'");
+            parameters.add(namePrefix.toLowerCase(Locale.ROOT).replaceAll("([\\\\%_])", "\\\\$1") + "%");
+        }
+        if (format != null) {
+            sql.append(" AND format = ?");
+            parameters.add(format);
+        }
+        if (author != null) {
+            sql.append(" AND author = ?");
+            parameters.add(author);
+        }
+        if (from != null) {
+            sql.append(" AND creation_time >= ?");
+            parameters.add(from);
+        }
+        if (to != null) {
+            sql.append(" AND creation_time <= ?");
+            parameters.add(to);
+        }
+        sql.append(" ORDER BY creation_time DESC NULLS LAST, file_key LIMIT ?");
+        parameters.add(limit);
+        List<fileSummary> results = new ArrayList<fileSummary>();
+        try (PreparedStatement query = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < parameters.size(); i++) {
+                query.setObject(i + 1, parameters.get(i));
+            }
+            try (ResultSet rs = query.executeQuery()) {
+                while (rs.next()) {
+                    results.add(new fileSummary(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                            rs.getString(5), rs.getString(6)));
+                }
+            }
+        } finally {
+            connection.rollback();
+        }
+        return results;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        connection.close();
+    }
+
+    private static void setLong(final PreparedStatement statement, final int index, final Long value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.BIGINT);
+        } else {
+            statement.setLong(index, value);
+        }
+    }
+}
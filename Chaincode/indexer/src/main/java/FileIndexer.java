@@ -0,0 +1,150 @@
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.hyperledger.fabric.client.Gateway;
+import org.hyperledger.fabric.client.identity.Identities;
+import org.hyperledger.fabric.client.identity.Signers;
+import org.hyperledger.fabric.client.identity.X509Identity;
+
+import io.grpc.ManagedChannel;
+import io.grpc.netty.shaded.io.grpc.netty.GrpcSslContexts;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+
+/**
+ * Keeps an off-chain index of the fileData in collectionFiles for the searches the
+ * ledger cannot serve: name prefix, format, author and creation time together, newest
+ * first, in any combination. The index is fed by the fileChanges events, either live
+ * from a peer or from a change log recorded earlier, and resumes from its checkpoint.
+ *
+ * Usage: FileIndexer [--option=value]... where the options are
+ * <ul>
+ *     <li>db: path of the H2 index (indexer)</li>
+ *     <li>replay: change log to apply, instead of listening to a peer</li>
+ *     <li>record: change log to append the applied events to</li>
+ *     <li>peer: gateway peer address (localhost:7051)</li>
+ *     <li>tlsCert: CA certificate of the peer TLS certificate</li>
+ *     <li>hostAlias: host name the peer TLS certificate was issued for</li>
+ *     <li>msp: MSP id of the identity (Org1MSP)</li>
+ *     <li>cert: certificate of the identity</li>
+ *     <li>key: private key of the identity</li>
+ *     <li>channel: channel of the chaincode (mychannel)</li>
+ *     <li>chaincode: name of the fileSharing chaincode (fileSharing)</li>
+ *     <li>search: true to search the index instead of updating it, with the filters
+ *     name, format, author, from, to (ms since the epoch), level (3) and limit (100)</li>
+ * </ul>
+ *
+ */
+public final class FileIndexer {
+
+    private static final List<String> OPTIONS = Arrays.asList("db", "replay", "record", "peer", "tlsCert",
+            "hostAlias", "msp", "cert", "key", "channel", "chaincode", "search", "name", "format", "author", "from",
+            "to", "level", "limit");
+
+    private final Map<String, String> options = new LinkedHashMap<String, String>();
+
+    private FileIndexer() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        FileIndexer indexer = new FileIndexer();
+        for (String arg: args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Invalid option " + arg + ", expected --name=value");
+            }
+            indexer.options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        indexer.run();
+    }
+
+    private void run() throws Exception {
+        for (String name: options.keySet()) {
+            if (!OPTIONS.contains(name)) {
+                throw new IllegalArgumentException("Unknown option " + name);
+            }
+        }
+        try (FileIndexStore store = new FileIndexStore(option("db", "indexer"))) {
+            if (options.containsKey("search")) {
+                search(store);
+                return;
+            }
+            ChangeHandler handler = store::apply;
+            ChangeLog log = options.containsKey("record") ? new ChangeLog(Paths.get(options.get("record"))) : null;
+            if (log != null) {
+                handler = (block, batch, records) -> {
+                    store.apply(block, batch, records);
+                    log.accept(block, batch, records);
+                };
+            }
+            try {
+                if (options.containsKey("replay")) {
+                    long events = ChangeLog.replay(Paths.get(options.get("replay")), store.getBlock(),
+                            store.getTransactionId(), handler);
+                    System.out.println("Applied " + events + " events, checkpoint block " + store.getBlock()
+                            + " transaction " + store.getTransactionId());
+                } else {
+                    listen(store, handler);
+                }
+            } finally {
+                if (log != null) {
+                    log.close();
+                }
+            }
+        }
+    }
+
+    private void listen(final FileIndexStore store, final ChangeHandler handler) throws Exception {
+        ManagedChannel channel = NettyChannelBuilder.forTarget(option("peer", "localhost:7051"))
+                .sslContext(GrpcSslContexts.forClient().trustManager(required("tlsCert").toFile()).build())
+                .overrideAuthority(option("hostAlias", "peer0.org1.example.com"))
+                .build();
+        X509Identity identity;
+        try (Reader in = Files.newBufferedReader(required("cert"), StandardCharsets.UTF_8)) {
+            identity = new X509Identity(option("msp", "Org1MSP"), Identities.readX509Certificate(in));
+        }
+        Gateway.Builder builder = Gateway.newInstance().identity(identity).connection(channel);
+        try (Reader in = Files.newBufferedReader(required("key"), StandardCharsets.UTF_8)) {
+            builder.signer(Signers.newPrivateKeySigner(Identities.readPrivateKey(in)));
+        }
+        try (Gateway gateway = builder.connect()) {
+            GatewaySource source = new GatewaySource(gateway.getNetwork(option("channel", "mychannel")),
+                    option("chaincode", "fileSharing"));
+            System.out.println("Listening from block " + store.getBlock() + " transaction " + store.getTransactionId());
+            source.listen(store.getBlock(), store.getTransactionId(), handler);
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private void search(final FileIndexStore store) throws Exception {
+        String from = options.get("from");
+        String to = options.get("to");
+        List<fileSummary> results = store.search(options.get("name"), options.get("format"), options.get("author"),
+                from == null ? null : Long.valueOf(from), to == null ? null : Long.valueOf(to),
+                Integer.parseInt(option("level", "3")), Integer.parseInt(option("limit", "100")));
+        StringBuilder out = new StringBuilder(256);
+        fileSummaryJsonCodec.writeArray(out, results.toArray(new fileSummary[0]));
+        System.out.println(out);
+    }
+
+    private String option(final String name, final String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private Path required(final String name) {
+        String value = options.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing option " + name);
+        }
+        return Paths.get(value);
+    }
+}
@@ -0,0 +1,103 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import org.hyperledger.fabric.client.ChaincodeEvent;
+import org.hyperledger.fabric.client.ChaincodeEventsRequest;
+import org.hyperledger.fabric.client.Checkpoint;
+import org.hyperledger.fabric.client.CloseableIterator;
+import org.hyperledger.fabric.client.Contract;
+import org.hyperledger.fabric.client.Network;
+
+/**
+ * Listens to the fileChanges events of fileContract through the Fabric Gateway and reads
+ * the changed records with readFileDataBatch, since the events only carry keys and
+ * hashes. The records are read when the event arrives, so a record changed again since
+ * is indexed in its newer version, which its own event then confirms. The identity of
+ * the gateway needs access level 3 to read every record.
+ *
+ */
+public final class GatewaySource {
+
+    private static final String CHANGE_EVENT = "fileChanges";
+    private static final int READ_BATCH = 500;
+
+    private final Network network;
+    private final Contract contract;
+    private final String chaincode;
+
+    public GatewaySource(final Network network, final String chaincode) {
+        this.network = network;
+        this.contract = network.getContract(chaincode);
+        this.chaincode = chaincode;
+    }
+
+    /**
+     * Passes the events after the checkpoint to the handler until the stream is closed
+     * or the handler fails.
+     * @param block of the checkpoint, -1 to start from the first block
+     * @param transactionId of the checkpoint
+     * @param handler receiving the events
+     */
+    public void listen(final long block, final String transactionId, final ChangeHandler handler) throws Exception {
+        ChaincodeEventsRequest.Builder request = network.newChaincodeEventsRequest(chaincode);
+        if (block < 0) {
+            request.startBlock(0);
+        } else {
+            request.checkpoint(new Checkpoint() {
+                @Override
+                public OptionalLong getBlockNumber() {
+                    return OptionalLong.of(block);
+                }
+
+                @Override
+                public Optional<String> getTransactionId() {
+                    return Optional.ofNullable(transactionId);
+                }
+            });
+        }
+        try (CloseableIterator<ChaincodeEvent> events = request.build().getEvents()) {
+            while (events.hasNext()) {
+                ChaincodeEvent event = events.next();
+                if (!CHANGE_EVENT.equals(event.getEventName())) {
+                    continue;
+                }
+                fileChangeBatch batch = fileChangeBatchJsonCodec.fromJson(
+                        new String(event.getPayload(), StandardCharsets.UTF_8));
+                handler.accept(event.getBlockNumber(), batch, readRecords(batch));
+            }
+        }
+    }
+
+    private Map<String, fileData> readRecords(final fileChangeBatch batch) throws Exception {
+        Map<String, fileData> records = new LinkedHashMap<String, fileData>();
+        List<String> changed = new ArrayList<String>();
+        for (fileChange change: batch.getChanges()) {
+            if (!"delete".equals(change.getOp())) {
+                changed.add(change.getKey());
+            }
+        }
+        int start = 0;
+        while (start < changed.size()) {
+            int end = Math.min(start + READ_BATCH, changed.size());
+            StringBuilder keys = new StringBuilder("[");
+            for (int i = start; i < end; i++) {
+                if (i > start) {
+                    keys.append(',');
+                }
+                JsonCodecWriter.writeString(keys, changed.get(i));
+            }
+            keys.append(']');
+            byte[] response = contract.evaluateTransaction("readFileDataBatch", keys.toString());
+            JsonCodecReader reader = new JsonCodecReader(new String(response, StandardCharsets.UTF_8));
+            ChangeLog.readRecords(reader, records);
+            reader.end();
+            start = end;
+        }
+        return records;
+    }
+}